@@ -0,0 +1,238 @@
+package com.fhstp.it231503.caen.archive;
+
+import com.fhstp.it231503.caen.rfid.RT0013;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static com.fhstp.it231503.caen.util.Helper.fixedpointToFloat;
+
+/**
+ * Memory-mapped reader of the columnar archive format. Points are read in place, nothing is deserialized up front.
+ * Needs neither the CAEN library nor a reader connection.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Thread-safe for reading, all accesses are absolute.
+ * @see ColumnarArchiveWriter
+ */
+public class ColumnarArchive implements Closeable {
+    private final MappedByteBuffer map;
+    private final String tagID;
+    private final RT0013.BIN_SENSOR_TYPES sensor;
+    private final int count;
+    private final int blockSize;
+    private final int blockCount;
+    private final int indexOffset;
+    private final int timeOffset;
+    private final int valueOffset;
+
+    /**
+     * Maps an archive file read-only and checks its header.
+     *
+     * @param file Archive file
+     * @throws IOException If the file cannot be mapped or is no archive.
+     */
+    public ColumnarArchive(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Archive too large to map: " + file);
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+
+        byte[] magic = new byte[4];
+        if (map.capacity() >= ColumnarArchiveWriter.HEADER_BYTES + 2)
+            map.get(0, magic);
+        if (!Arrays.equals(magic, ColumnarArchiveWriter.MAGIC))
+            throw new IOException("Not a columnar archive: " + file);
+        if (map.getShort(4) != ColumnarArchiveWriter.VERSION)
+            throw new IOException("Unsupported version " + map.getShort(4) + ": " + file);
+        int sensorIndex = map.get(6);
+        if (sensorIndex < 0 || sensorIndex >= RT0013.BIN_SENSOR_TYPES.values().length)
+            throw new IOException("Unknown sensor " + sensorIndex + ": " + file);
+        sensor = RT0013.BIN_SENSOR_TYPES.values()[sensorIndex];
+        count = (int) map.getLong(8);
+        blockSize = map.getInt(32);
+        blockCount = map.getInt(36);
+        indexOffset = (int) map.getLong(40);
+        timeOffset = (int) map.getLong(48);
+        valueOffset = (int) map.getLong(56);
+        byte[] id = new byte[Short.toUnsignedInt(map.getShort(ColumnarArchiveWriter.HEADER_BYTES))];
+        map.get(ColumnarArchiveWriter.HEADER_BYTES + 2, id);
+        tagID = new String(id, StandardCharsets.US_ASCII);
+
+        if (valueOffset + 2L * count > map.capacity())
+            throw new IOException("Truncated archive: " + file);
+    }
+
+    public String getTagID() {
+        return tagID;
+    }
+
+    public RT0013.BIN_SENSOR_TYPES getSensor() {
+        return sensor;
+    }
+
+    /**
+     * @return Count of points
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return Timestamp of first point or 0 if empty
+     */
+    public long getFirstTimestamp() {
+        return map.getLong(16);
+    }
+
+    /**
+     * @return Timestamp of last point or 0 if empty
+     */
+    public long getLastTimestamp() {
+        return map.getLong(24);
+    }
+
+    /**
+     * @param index Point index (0...size()-1)
+     * @return Timestamp in seconds (UTC)
+     */
+    public long getTimestamp(int index) {
+        return blockBase(index / blockSize) + map.getInt(timeOffset + 4 * index);
+    }
+
+    /**
+     * @param index Point index (0...size()-1)
+     * @return Raw RT0013 fixed-point value or 0xFFFF if no sample is stored
+     */
+    public short getFixedPoint(int index) {
+        return map.getShort(valueOffset + 2 * index);
+    }
+
+    /**
+     * @param index Point index (0...size()-1)
+     * @return Value in °C or %
+     */
+    public float getValue(int index) {
+        return fixedpointToFloat(sensor, getFixedPoint(index));
+    }
+
+    /**
+     * @param block Block number (0...getBlockCount()-1)
+     * @return Raw value of the smallest decoded value in block, Short.MAX_VALUE if block has no samples
+     */
+    public short getBlockMin(int block) {
+        return map.getShort(indexOffset + block * ColumnarArchiveWriter.INDEX_ENTRY_BYTES + 16);
+    }
+
+    /**
+     * @param block Block number (0...getBlockCount()-1)
+     * @return Raw value of the largest decoded value in block, Short.MIN_VALUE if block has no samples
+     */
+    public short getBlockMax(int block) {
+        return map.getShort(indexOffset + block * ColumnarArchiveWriter.INDEX_ENTRY_BYTES + 18);
+    }
+
+    /**
+     * @param block Block number (0...getBlockCount()-1)
+     * @return Smallest value in block in °C or %, NaN if block has no samples
+     */
+    public float getBlockMinValue(int block) {
+        short min = getBlockMin(block);
+        return (min == Short.MAX_VALUE) ? Float.NaN : fixedpointToFloat(sensor, min);
+    }
+
+    /**
+     * @param block Block number (0...getBlockCount()-1)
+     * @return Largest value in block in °C or %, NaN if block has no samples
+     */
+    public float getBlockMaxValue(int block) {
+        short max = getBlockMax(block);
+        return (max == Short.MIN_VALUE) ? Float.NaN : fixedpointToFloat(sensor, max);
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Function to find the first point at or after a timestamp via the block index.
+     *
+     * @param epochSeconds Timestamp in seconds (UTC)
+     * @return Point index, size() if all points are earlier
+     */
+    public int indexOf(long epochSeconds) {
+        // Last block starting at or before said time
+        int low = 0, high = blockCount - 1, block = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (blockBase(mid) <= epochSeconds) {
+                block = mid;
+                low = mid + 1;
+            } else
+                high = mid - 1;
+        }
+        if (blockCount == 0 || blockLast(block) < epochSeconds)
+            return Math.min((block + 1) * blockSize, count);
+
+        // Inside block
+        low = block * blockSize;
+        high = Math.min(low + blockSize, count) - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getTimestamp(mid) < epochSeconds)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Function to visit all points of a time range in order.
+     *
+     * @param fromEpoch First second (inclusive)
+     * @param toEpoch   Last second (exclusive)
+     * @param visitor   Receiver of points
+     * @return Count of visited points
+     */
+    public int scan(long fromEpoch, long toEpoch, PointVisitor visitor) {
+        int visited = 0;
+        for (int i = indexOf(fromEpoch); i < count; i++) {
+            long time = getTimestamp(i);
+            if (time >= toEpoch)
+                break;
+            visitor.visit(time, getFixedPoint(i));
+            visited++;
+        }
+        return visited;
+    }
+
+    private long blockBase(int block) {
+        return map.getLong(indexOffset + block * ColumnarArchiveWriter.INDEX_ENTRY_BYTES);
+    }
+
+    private long blockLast(int block) {
+        return map.getLong(indexOffset + block * ColumnarArchiveWriter.INDEX_ENTRY_BYTES + 8);
+    }
+
+    /**
+     * Releases the mapping reference. The mapping itself is freed by the garbage collector.
+     */
+    @Override
+    public void close() {
+        // MappedByteBuffer has no unmap, nothing to do besides dropping the reference.
+    }
+}
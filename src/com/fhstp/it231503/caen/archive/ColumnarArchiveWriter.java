@@ -0,0 +1,201 @@
+package com.fhstp.it231503.caen.archive;
+
+import com.fhstp.it231503.caen.export.MeasurementWriter;
+import com.fhstp.it231503.caen.rfid.RT0013;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static com.fhstp.it231503.caen.util.Helper.fixedpointToFloat;
+
+/**
+ * Writer of the columnar archive format for one tag and sensor. All numbers little-endian.
+ * <pre>
+ * Header (64 bytes): "RTCA" | u16 version | u8 sensor | u8 reserved | i64 count | i64 first ts | i64 last ts
+ *                    | i32 block size | i32 block count | i64 index offset | i64 time offset | i64 value offset
+ *                    then u16 n | n bytes tag ID (ASCII hex), padded to 8 bytes
+ * Index:  per block  i64 base ts | i64 last ts | i16 min value | i16 max value | 4 bytes padding
+ *                    (raw values of the smallest and largest decoded value, as raw order differs from decoded order)
+ * Times:  per point  i32 delta to base ts of its block
+ * Values: per point  i16 raw RT0013 fixed-point value (0xFFFF = none)
+ * </pre>
+ * Points are collected in memory (6 bytes each) and written sorted by timestamp on close.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Not thread-safe. Rows without timestamp are skipped.
+ * @see ColumnarArchive
+ */
+public class ColumnarArchiveWriter implements MeasurementWriter {
+    static final byte[] MAGIC = {'R', 'T', 'C', 'A'};
+    static final short VERSION = 2;
+    static final int HEADER_BYTES = 64;
+    static final int INDEX_ENTRY_BYTES = 24;
+    /**
+     * Points per block of the index.
+     */
+    public static final int BLOCK_SIZE = 1024;
+
+    private final Path file;
+    private final String tagID;
+    private final RT0013.BIN_SENSOR_TYPES sensor;
+    private long[] times = new long[BLOCK_SIZE];
+    private short[] values = new short[BLOCK_SIZE];
+    private int count = 0;
+    private boolean sorted = true;
+    private long skipped = 0;
+
+    /**
+     * Prepares an archive file. The file is written on close.
+     *
+     * @param file   Target file
+     * @param tagID  Tag ID as hex string
+     * @param sensor Type of Sensor
+     * @throws IllegalArgumentException When wrong sensor is given.
+     */
+    public ColumnarArchiveWriter(Path file, String tagID, RT0013.BIN_SENSOR_TYPES sensor) {
+        if (sensor == null)
+            throw new IllegalArgumentException("Wrong sensor given");
+        this.file = file;
+        this.tagID = (tagID == null) ? "" : tagID;
+        this.sensor = sensor;
+    }
+
+    @Override
+    public void writeRow(long epochSeconds, short fixedPoint) {
+        if (epochSeconds == NO_TIME) {
+            skipped++;
+            return;
+        }
+        if (count == times.length) {
+            times = Arrays.copyOf(times, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+        }
+        if (count > 0 && epochSeconds < times[count - 1])
+            sorted = false;
+        times[count] = epochSeconds;
+        values[count] = fixedPoint;
+        count++;
+    }
+
+    @Override
+    public long getRows() {
+        return count;
+    }
+
+    /**
+     * @return Count of rows dropped for missing timestamp.
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Sorts the collected points and writes the archive file.
+     *
+     * @throws IOException If writing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!sorted)
+            sortByTime();
+
+        byte[] id = tagID.getBytes(StandardCharsets.US_ASCII);
+        int blockCount = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        long indexOffset = align8(HEADER_BYTES + 2L + id.length);
+        long timeOffset = indexOffset + (long) blockCount * INDEX_ENTRY_BYTES;
+        long valueOffset = timeOffset + 4L * count;
+        long fileSize = valueOffset + 2L * count;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer head = ByteBuffer.allocate((int) timeOffset).order(ByteOrder.LITTLE_ENDIAN);
+            head.put(MAGIC).putShort(VERSION).put((byte) sensor.ordinal()).put((byte) 0)
+                    .putLong(count)
+                    .putLong((count > 0) ? times[0] : 0)
+                    .putLong((count > 0) ? times[count - 1] : 0)
+                    .putInt(BLOCK_SIZE).putInt(blockCount)
+                    .putLong(indexOffset).putLong(timeOffset).putLong(valueOffset)
+                    .putShort((short) id.length).put(id);
+
+            head.position((int) indexOffset);
+            for (int block = 0; block < blockCount; block++) {
+                int from = block * BLOCK_SIZE;
+                int to = Math.min(from + BLOCK_SIZE, count);
+                short min = Short.MAX_VALUE, max = Short.MIN_VALUE;
+                float minValue = Float.POSITIVE_INFINITY, maxValue = Float.NEGATIVE_INFINITY;
+                for (int i = from; i < to; i++) {
+                    if (values[i] == NO_VALUE)
+                        continue;
+                    float value = fixedpointToFloat(sensor, values[i]); // e.g. negative temperatures are raw 7232..8191
+                    if (value < minValue) {
+                        minValue = value;
+                        min = values[i];
+                    }
+                    if (value > maxValue) {
+                        maxValue = value;
+                        max = values[i];
+                    }
+                }
+                head.putLong(times[from]).putLong(times[to - 1]).putShort(min).putShort(max).putInt(0);
+            }
+            writeFully(channel, head.flip());
+
+            ByteBuffer column = ByteBuffer.allocateDirect(4 * BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < count; i++) {
+                long delta = times[i] - times[i - i % BLOCK_SIZE];
+                if (delta > Integer.MAX_VALUE)
+                    throw new IOException("Gap inside block too large: " + delta + " sec");
+                if (!column.hasRemaining())
+                    writeFully(channel, column.flip());
+                column.putInt((int) delta);
+            }
+            writeFully(channel, column.flip());
+
+            for (int i = 0; i < count; i++) {
+                if (!column.hasRemaining())
+                    writeFully(channel, column.flip());
+                column.putShort(values[i]);
+            }
+            writeFully(channel, column.flip());
+
+            if (channel.size() != fileSize)
+                throw new IOException("Archive size mismatch: " + channel.size() + " != " + fileSize);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    private static long align8(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /**
+     * Stable sort of both columns by timestamp.
+     */
+    private void sortByTime() {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++)
+            order[i] = i;
+        long[] t = times;
+        Arrays.sort(order, (a, b) -> Long.compare(t[a], t[b]));
+
+        long[] sortedTimes = new long[count];
+        short[] sortedValues = new short[count];
+        for (int i = 0; i < count; i++) {
+            sortedTimes[i] = times[order[i]];
+            sortedValues[i] = values[order[i]];
+        }
+        times = sortedTimes;
+        values = sortedValues;
+        sorted = true;
+    }
+}
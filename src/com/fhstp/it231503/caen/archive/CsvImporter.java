@@ -0,0 +1,286 @@
+package com.fhstp.it231503.caen.archive;
+
+import com.fhstp.it231503.caen.export.MeasurementWriter;
+import com.fhstp.it231503.caen.rfid.RT0013;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static com.fhstp.it231503.caen.util.Helper.floatToFixedpoint;
+
+/**
+ * Static bulk importer of CSV files written by CsvStreamWriter (e.g. CsvStreamWriter.exportDataToCSV) into a MeasurementStore.
+ * Tag ID and sensor are taken from the file name "tagID_SENSOR_data.csv(.gz)". Rows look like
+ * "yyyy-MM-dd hh:mm:ss;21,5" with "nan" for missing timestamps or values, timestamps in UTC.
+ * Files are parsed in parallel by a byte-level parser, nothing is allocated per row.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Legacy files were written with the 12-hour pattern "hh" and without AM/PM. A file with no hour 00 and none
+ * above 12 is taken as 12-hour: "12" is read as midnight and the afternoon is detected by the hour falling back within
+ * the same day. Other files are read as 24-hour. Rows without timestamp cannot be keyed and are skipped.
+ */
+public class CsvImporter {
+    private static final Pattern FILE_NAME = Pattern.compile("(.+)_(TEMPERATURE|HUMIDITY)_data\\.csv(\\.gz)?");
+    /**
+     * Shared pool for file parsing, bounded by core count.
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Outcome of an import.
+     *
+     * @param files     Count of files imported
+     * @param failed    Count of files skipped (name or read errors)
+     * @param rows      Count of rows with timestamp
+     * @param malformed Count of rows skipped (no timestamp or not parseable)
+     * @param appended  Count of points newly stored
+     */
+    public record Summary(int files, int failed, long rows, long malformed, long appended) {
+    }
+
+    /**
+     * Function to import all matching files below a directory.
+     *
+     * @param store     Target store
+     * @param directory Directory to search recursively
+     * @return Summary
+     * @throws IOException If the directory cannot be walked.
+     */
+    public static Summary importDirectory(MeasurementStore store, Path directory) throws IOException {
+        try (Stream<Path> walk = Files.walk(directory)) {
+            return importFiles(store, walk.filter(Files::isRegularFile)
+                    .filter(path -> FILE_NAME.matcher(path.getFileName().toString()).matches())
+                    .toList());
+        }
+    }
+
+    /**
+     * Function to import files in parallel. A failing file is reported on System.err and skipped.
+     *
+     * @param store Target store
+     * @param files CSV files, named "tagID_SENSOR_data.csv(.gz)"
+     * @return Summary
+     */
+    public static Summary importFiles(MeasurementStore store, List<Path> files) {
+        List<FileTask> tasks = new ArrayList<>();
+        for (Path file : files)
+            tasks.add(new FileTask(store, file));
+        POOL.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+
+        int imported = 0, failed = 0;
+        long rows = 0, malformed = 0, appended = 0;
+        for (FileTask task : tasks) {
+            ParsedFile parsed = task.join();
+            if (parsed == null) {
+                failed++;
+                continue;
+            }
+            imported++;
+            rows += parsed.count;
+            malformed += parsed.malformed;
+            appended += parsed.appended;
+        }
+        return new Summary(imported, failed, rows, malformed, appended);
+    }
+
+    /**
+     * Fork-join task parsing one file and appending it as one batch.
+     */
+    @SuppressWarnings("serial") // Forked in process only, never serialized
+    private static class FileTask extends RecursiveTask<ParsedFile> {
+        private final MeasurementStore store;
+        private final Path file;
+
+        FileTask(MeasurementStore store, Path file) {
+            this.store = store;
+            this.file = file;
+        }
+
+        @Override
+        protected ParsedFile compute() {
+            Matcher name = FILE_NAME.matcher(file.getFileName().toString());
+            if (!name.matches()) {
+                System.err.println("Skipping " + file + ": name is not tagID_SENSOR_data.csv");
+                return null;
+            }
+            try {
+                RT0013.BIN_SENSOR_TYPES sensor = RT0013.BIN_SENSOR_TYPES.valueOf(name.group(2));
+                byte[] content;
+                try (InputStream in = Files.newInputStream(file)) {
+                    content = (name.group(3) != null) ? new GZIPInputStream(in, 1 << 16).readAllBytes() : in.readAllBytes();
+                }
+                ParsedFile parsed = parse(content, sensor);
+                parsed.appended = store.append(name.group(1), sensor, parsed.times, parsed.values, parsed.count);
+                return parsed;
+            } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+                System.err.println("Skipping " + file + ": " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Rows of one file.
+     */
+    static final class ParsedFile {
+        long[] times;
+        short[] values;
+        int count = 0;
+        long malformed = 0;
+        int appended = 0;
+    }
+
+    /**
+     * Function to parse the content of one CSV file.
+     *
+     * @param content Raw bytes (UTF-8)
+     * @param sensor  Type of Sensor, for fixed-point conversion
+     * @return Rows with timestamp
+     */
+    static ParsedFile parse(byte[] content, RT0013.BIN_SENSOR_TYPES sensor) {
+        // Upper bound of rows: "yyyy-MM-dd hh:mm:ss;nan\n" has 24 bytes
+        int capacity = content.length / 20 + 1;
+        long[] days = new long[capacity];
+        int[] seconds = new int[capacity];
+        short[] values = new short[capacity];
+        boolean twentyFourHours = false;
+
+        ParsedFile parsed = new ParsedFile();
+        int n = 0;
+        int pos = 0;
+        while (pos < content.length) {
+            int end = pos;
+            while (end < content.length && content[end] != '\n')
+                end++;
+            int next = end + 1;
+            if (end > pos && content[end - 1] == '\r')
+                end--;
+            if (end == pos || !isDigit(content[pos]) && !startsWithNan(content, pos, end)) {
+                // Empty or header line
+                pos = next;
+                continue;
+            }
+
+            // Timestamp "yyyy-MM-dd hh:mm:ss"
+            if (end - pos < 20 || content[pos + 19] != ';' || content[pos + 4] != '-' || content[pos + 7] != '-'
+                    || content[pos + 13] != ':' || content[pos + 16] != ':') {
+                parsed.malformed++;
+                pos = next;
+                continue;
+            }
+            int year = digits(content, pos, 4), month = digits(content, pos + 5, 2), day = digits(content, pos + 8, 2);
+            int hour = digits(content, pos + 11, 2), minute = digits(content, pos + 14, 2), second = digits(content, pos + 17, 2);
+            if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                    || minute < 0 || minute > 59 || second < 0 || second > 59) {
+                parsed.malformed++;
+                pos = next;
+                continue;
+            }
+            twentyFourHours |= hour == 0 || hour > 12;
+
+            days[n] = epochDay(year, month, day);
+            seconds[n] = hour * 3600 + minute * 60 + second;
+            values[n] = parseValue(content, pos + 20, end, sensor);
+            n++;
+            pos = next;
+        }
+
+        parsed.times = new long[n];
+        parsed.values = values;
+        parsed.count = n;
+        boolean afternoon = false;
+        for (int i = 0; i < n; i++) {
+            int secondOfDay = seconds[i];
+            if (!twentyFourHours) {
+                if (i == 0 || days[i] != days[i - 1])
+                    afternoon = false;
+                // "12" is the first hour of each half
+                secondOfDay = (secondOfDay >= 12 * 3600) ? secondOfDay - 12 * 3600 : secondOfDay;
+                if (!afternoon && i > 0 && days[i] == days[i - 1] && secondOfDay < parsed.times[i - 1] - days[i - 1] * 86400L)
+                    afternoon = true;
+                if (afternoon)
+                    secondOfDay += 12 * 3600;
+            }
+            parsed.times[i] = days[i] * 86400L + secondOfDay;
+        }
+        return parsed;
+    }
+
+    /**
+     * Function to parse "21,5", "-3.25" or "nan" without allocation.
+     *
+     * @return Raw fixed-point value, MeasurementWriter.NO_VALUE if missing or not parseable
+     */
+    private static short parseValue(byte[] content, int from, int to, RT0013.BIN_SENSOR_TYPES sensor) {
+        if (from >= to || startsWithNan(content, from, to))
+            return MeasurementWriter.NO_VALUE;
+        boolean negative = content[from] == '-';
+        int pos = negative ? from + 1 : from;
+        long mantissa = 0;
+        int scale = 0;
+        boolean fraction = false, any = false;
+        for (; pos < to; pos++) {
+            byte c = content[pos];
+            if (isDigit(c)) {
+                if (mantissa < Long.MAX_VALUE / 10) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (fraction)
+                        scale++;
+                }
+                any = true;
+            } else if ((c == ',' || c == '.') && !fraction)
+                fraction = true;
+            else
+                break;
+        }
+        if (!any)
+            return MeasurementWriter.NO_VALUE;
+        double value = mantissa / Math.pow(10, scale);
+        return floatToFixedpoint(sensor, (float) (negative ? -value : value));
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean startsWithNan(byte[] content, int from, int to) {
+        return to - from >= 3 && (content[from] | 0x20) == 'n' && (content[from + 1] | 0x20) == 'a' && (content[from + 2] | 0x20) == 'n';
+    }
+
+    /**
+     * @return Value of fixed-width decimal digits, -1 if a non-digit is found
+     */
+    private static int digits(byte[] content, int from, int width) {
+        int value = 0;
+        for (int i = from; i < from + width; i++) {
+            if (!isDigit(content[i]))
+                return -1;
+            value = value * 10 + (content[i] - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Function to count days since 1970-01-01 of a proleptic Gregorian date (civil-to-days).
+     */
+    static long epochDay(int year, int month, int day) {
+        long y = (month <= 2) ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,180 @@
+package com.fhstp.it231503.caen.archive;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Gorilla-style block codec for (timestamp, raw fixed-point value) series. Each block decodes on its own,
+ * which gives random access on block level.
+ * <pre>
+ * Timestamp: zigzag delta-of-delta (first delta is taken against 0)
+ *   '0' = 0 | '10' + 7 bits | '110' + 9 bits | '1110' + 12 bits | '1111' + 64 bits
+ * Value:     zigzag 16 bit delta to previous value (first value against 0)
+ *   '0' = 0 | '10' + 4 bits | '110' + 8 bits | '111' + 16 bits
+ * </pre>
+ * With the fixed sampling interval of RT0013 (REG_BIN_SAMPLETIME_*) and slowly moving values a point mostly costs 2-7 bits
+ * instead of 6 bytes.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Stateless and thread-safe. The first timestamp and the point count are kept by the caller (frame header).
+ */
+public class GorillaCodec {
+    /**
+     * Function to encode a block of points, timestamps ascending.
+     *
+     * @param times  Timestamps in seconds (UTC)
+     * @param values Raw fixed-point values
+     * @param from   First index (inclusive)
+     * @param to     Last index (exclusive)
+     * @return Encoded bits, zero-padded to full bytes
+     */
+    public static byte[] encode(long[] times, short[] values, int from, int to) {
+        BitWriter out = new BitWriter(Math.max(16, (to - from) * 2));
+        long previousTime = (from < to) ? times[from] : 0;
+        long previousDelta = 0;
+        short previousValue = 0;
+        for (int i = from; i < to; i++) {
+            long delta = times[i] - previousTime;
+            long dod = zigzag(delta - previousDelta);
+            if (dod == 0)
+                out.write(0b0, 1);
+            else if (dod < (1 << 7))
+                out.write((0b10L << 7) | dod, 9);
+            else if (dod < (1 << 9))
+                out.write((0b110L << 9) | dod, 12);
+            else if (dod < (1 << 12))
+                out.write((0b1110L << 12) | dod, 16);
+            else {
+                out.write(0b1111, 4);
+                out.write(dod >>> 32, 32);
+                out.write(dod & 0xFFFFFFFFL, 32);
+            }
+            previousTime = times[i];
+            previousDelta = delta;
+
+            int diff = zigzag16((short) (values[i] - previousValue));
+            if (diff == 0)
+                out.write(0b0, 1);
+            else if (diff < (1 << 4))
+                out.write((0b10L << 4) | diff, 6);
+            else if (diff < (1 << 8))
+                out.write((0b110L << 8) | diff, 11);
+            else
+                out.write((0b111L << 16) | diff, 19);
+            previousValue = values[i];
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Function to decode a block of points.
+     *
+     * @param src       Encoded bits, read from its position on
+     * @param count     Count of points in block
+     * @param firstTime Timestamp of first point
+     * @param visitor   Receiver of points, in encoded order
+     */
+    public static void decode(ByteBuffer src, int count, long firstTime, PointVisitor visitor) {
+        BitReader in = new BitReader(src);
+        long time = firstTime;
+        long delta = 0;
+        short value = 0;
+        for (int i = 0; i < count; i++) {
+            long dod;
+            if (in.read(1) == 0)
+                dod = 0;
+            else if (in.read(1) == 0)
+                dod = in.read(7);
+            else if (in.read(1) == 0)
+                dod = in.read(9);
+            else if (in.read(1) == 0)
+                dod = in.read(12);
+            else
+                dod = (in.read(32) << 32) | in.read(32);
+            delta += unzigzag(dod);
+            time += delta;
+
+            int diff;
+            if (in.read(1) == 0)
+                diff = 0;
+            else if (in.read(1) == 0)
+                diff = (int) in.read(4);
+            else if (in.read(1) == 0)
+                diff = (int) in.read(8);
+            else
+                diff = (int) in.read(16);
+            value = (short) (value + unzigzag(diff));
+
+            visitor.visit(time, value);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int zigzag16(short value) {
+        return ((value << 1) ^ (value >> 15)) & 0xFFFF;
+    }
+
+    /**
+     * Append-only bit buffer, most significant bit first.
+     */
+    private static class BitWriter {
+        private byte[] bytes;
+        private int size = 0;
+        private long bits = 0;
+        private int pending = 0;
+
+        BitWriter(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        /**
+         * @param value Bits right-aligned
+         * @param width Count of bits (1...32 plus the 4-bit prefixes above, max 36)
+         */
+        void write(long value, int width) {
+            bits = (bits << width) | (value & ((1L << width) - 1));
+            pending += width;
+            while (pending >= 8) {
+                pending -= 8;
+                if (size == bytes.length)
+                    bytes = Arrays.copyOf(bytes, size * 2);
+                bytes[size++] = (byte) (bits >>> pending);
+            }
+        }
+
+        byte[] toByteArray() {
+            if (pending > 0)
+                write(0, 8 - pending);
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /**
+     * Bit reader over a byte buffer, most significant bit first.
+     */
+    private static class BitReader {
+        private final ByteBuffer src;
+        private long bits = 0;
+        private int available = 0;
+
+        BitReader(ByteBuffer src) {
+            this.src = src;
+        }
+
+        long read(int width) {
+            while (available < width) {
+                bits = (bits << 8) | (src.hasRemaining() ? (src.get() & 0xFF) : 0);
+                available += 8;
+            }
+            available -= width;
+            return (bits >>> available) & ((1L << width) - 1);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.fhstp.it231503.caen.archive;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Simple rate limiter for background I/O. Callers report bytes moved and are put to sleep while ahead of the budget.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Not thread-safe, one per worker.
+ */
+final class IoThrottle {
+    private final long bytesPerSecond;
+    private final long started = System.nanoTime();
+    private long bytes = 0;
+
+    /**
+     * @param bytesPerSecond Budget, 0 or less for unlimited
+     */
+    IoThrottle(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Function to account moved bytes and wait until they fit the budget.
+     *
+     * @param moved Bytes read or written
+     * @throws InterruptedIOException If interrupted while waiting.
+     */
+    void acquire(long moved) throws InterruptedIOException {
+        bytes += moved;
+        if (bytesPerSecond <= 0)
+            return;
+        long aheadMillis = bytes * 1000L / bytesPerSecond - (System.nanoTime() - started) / 1_000_000L;
+        if (aheadMillis <= 0)
+            return;
+        try {
+            Thread.sleep(aheadMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Throttled I/O interrupted");
+        }
+    }
+}
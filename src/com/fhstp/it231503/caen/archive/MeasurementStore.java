@@ -0,0 +1,358 @@
+package com.fhstp.it231503.caen.archive;
+
+import com.fhstp.it231503.caen.export.MeasurementWriter;
+import com.fhstp.it231503.caen.rfid.RT0013;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Embedded, append-only time-series store of all downloaded tags, keyed by tag ID, sensor and timestamp.
+ * Layout on disk: root/tagID/SENSOR/segment-000000.seg (see StoreSeries).
+ * Re-ingesting an overlapping download only adds the points not stored yet, so repeated reads of a tag merge into one history.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Thread-safe. Points without timestamp cannot be keyed and are skipped. One store per root at a time, held
+ * through a lock on root/store.lock, as compaction swaps series directories.
+ */
+public class MeasurementStore implements Closeable {
+    /**
+     * Default store location, relative to working directory.
+     */
+    public static final Path DEFAULT_ROOT = Path.of("store");
+    static final String LOCK_FILE = "store.lock";
+    /**
+     * Default count of series kept open (each holds its segment channels and rollup tables).
+     */
+    public static final int DEFAULT_MAX_OPEN = 64;
+
+    /**
+     * Key of a series.
+     *
+     * @param tagID  Tag ID as hex string
+     * @param sensor Type of Sensor
+     */
+    record SeriesKey(String tagID, RT0013.BIN_SENSOR_TYPES sensor) {
+        @Override
+        public String toString() {
+            return tagID + "/" + sensor;
+        }
+    }
+
+    /**
+     * Function on a series, run while the series is held open.
+     *
+     * @param <T> Type of result
+     */
+    @FunctionalInterface
+    interface SeriesTask<T> {
+        T run(StoreSeries series) throws IOException;
+    }
+
+    /**
+     * Open series and its count of users, which keep it from being closed.
+     */
+    private static final class Open {
+        private final SeriesKey key;
+        private final StoreSeries series;
+        private int users = 0;
+
+        private Open(SeriesKey key, StoreSeries series) {
+            this.key = key;
+            this.series = series;
+        }
+    }
+
+    private final Path root;
+    private final int maxOpen;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    /**
+     * Open series in access order, the least recently used unused one is closed beyond maxOpen.
+     */
+    private final LinkedHashMap<SeriesKey, Open> series = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Opens (or creates) a store. Series are opened lazily.
+     *
+     * @param root Store directory
+     * @throws IOException If the directory cannot be created or the store is open elsewhere.
+     */
+    public MeasurementStore(Path root) throws IOException {
+        this(root, DEFAULT_MAX_OPEN);
+    }
+
+    /**
+     * Opens (or creates) a store. Series are opened lazily.
+     *
+     * @param root    Store directory
+     * @param maxOpen Count of series kept open, exceeded only while more are in use at once
+     * @throws IOException              If the directory cannot be created or the store is open elsewhere.
+     * @throws IllegalArgumentException If maxOpen is not positive.
+     */
+    public MeasurementStore(Path root, int maxOpen) throws IOException {
+        if (maxOpen <= 0)
+            throw new IllegalArgumentException("At least one series must be kept open");
+        this.root = root;
+        this.maxOpen = maxOpen;
+        Files.createDirectories(root);
+        this.lockChannel = FileChannel.open(root.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired = null;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by this process
+        } finally {
+            if (acquired == null)
+                lockChannel.close();
+        }
+        if (acquired == null)
+            throw new IOException("Store already open elsewhere: " + root.toAbsolutePath());
+        this.lock = acquired;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Function to run a task on a series, opening it (and verifying its segments) if not open. The series is not
+     * closed while the task runs.
+     *
+     * @param tagID  Tag ID as hex string
+     * @param sensor Type of Sensor
+     * @param task   Task on the series
+     * @param <T>    Type of result
+     * @return Result of task
+     * @throws IllegalArgumentException When wrong sensor or tag ID is given.
+     * @throws IOException              If the series cannot be opened or the task fails.
+     */
+    <T> T withSeries(String tagID, RT0013.BIN_SENSOR_TYPES sensor, SeriesTask<T> task) throws IOException {
+        Open open = acquire(tagID, sensor);
+        try {
+            return task.run(open.series);
+        } finally {
+            release(open);
+        }
+    }
+
+    /**
+     * Function to open a series for a user, released by release().
+     */
+    private synchronized Open acquire(String tagID, RT0013.BIN_SENSOR_TYPES sensor) throws IOException {
+        if (sensor == null)
+            throw new IllegalArgumentException("Wrong sensor given");
+        if (tagID == null || !tagID.matches("[0-9A-Za-z_-]+"))
+            throw new IllegalArgumentException("Invalid tag ID: " + tagID);
+        SeriesKey key = new SeriesKey(tagID, sensor);
+        Open open = series.get(key);
+        if (open == null) {
+            open = new Open(key, new StoreSeries(root.resolve(tagID).resolve(sensor.toString()), sensor));
+            series.put(key, open);
+        }
+        open.users++;
+        closeUnused();
+        return open;
+    }
+
+    private synchronized void release(Open open) throws IOException {
+        open.users--;
+        closeUnused();
+    }
+
+    /**
+     * Closes least recently used series not in use until at most maxOpen are open.
+     */
+    private void closeUnused() throws IOException {
+        Iterator<Open> it = series.values().iterator();
+        while (series.size() > maxOpen && it.hasNext()) {
+            Open eldest = it.next();
+            if (eldest.users > 0)
+                continue;
+            it.remove();
+            eldest.series.close();
+        }
+    }
+
+    /**
+     * @return Count of series currently open
+     */
+    public synchronized int getOpenSeries() {
+        return series.size();
+    }
+
+    /**
+     * Function to append points, already stored timestamps are dropped.
+     *
+     * @param tagID  Tag ID as hex string
+     * @param sensor Type of Sensor
+     * @param times  Timestamps in seconds (UTC), any order
+     * @param values Raw fixed-point values
+     * @param count  Count of valid entries
+     * @return Count of newly stored points
+     * @throws IOException If writing fails.
+     */
+    public int append(String tagID, RT0013.BIN_SENSOR_TYPES sensor, long[] times, short[] values, int count) throws IOException {
+        return withSeries(tagID, sensor, series -> series.append(times, values, count));
+    }
+
+    /**
+     * Function to open a writer collecting one download, appended as one batch on close.
+     * Fits RT0013decoder.streamLogData and the export writers.
+     *
+     * @param tagID  Tag ID as hex string
+     * @param sensor Type of Sensor
+     * @return Writer
+     * @throws IOException If the series cannot be opened.
+     */
+    public Ingest ingest(String tagID, RT0013.BIN_SENSOR_TYPES sensor) throws IOException {
+        return new Ingest(this, acquire(tagID, sensor));
+    }
+
+    /**
+     * Function to visit all stored points of a time range in time order.
+     *
+     * @param tagID     Tag ID as hex string
+     * @param sensor    Type of Sensor
+     * @param fromEpoch First second (inclusive)
+     * @param toEpoch   Last second (exclusive)
+     * @param visitor   Receiver of points
+     * @return Count of visited points
+     * @throws IOException If reading fails.
+     */
+    public long scan(String tagID, RT0013.BIN_SENSOR_TYPES sensor, long fromEpoch, long toEpoch, PointVisitor visitor) throws IOException {
+        return withSeries(tagID, sensor, series -> series.scan(fromEpoch, toEpoch, visitor));
+    }
+
+    /**
+     * @return Count of stored points of a series
+     * @throws IOException If the series cannot be opened.
+     */
+    public long size(String tagID, RT0013.BIN_SENSOR_TYPES sensor) throws IOException {
+        return withSeries(tagID, sensor, StoreSeries::size);
+    }
+
+    /**
+     * Function to list all tags with stored data.
+     *
+     * @return Tag IDs, sorted
+     * @throws IOException If the root cannot be listed.
+     */
+    public List<String> tagIDs() throws IOException {
+        List<String> tags = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path path : stream)
+                tags.add(path.getFileName().toString());
+        }
+        Collections.sort(tags);
+        return tags;
+    }
+
+    /**
+     * Function to list every series found on disk, without opening them (see withSeries()).
+     *
+     * @return Keys of all tags and sensors
+     * @throws IOException If the root cannot be listed.
+     */
+    List<SeriesKey> seriesOnDisk() throws IOException {
+        List<SeriesKey> all = new ArrayList<>();
+        for (String tagID : tagIDs())
+            for (RT0013.BIN_SENSOR_TYPES sensor : RT0013.BIN_SENSOR_TYPES.values())
+                if (Files.isDirectory(root.resolve(tagID).resolve(sensor.toString())))
+                    all.add(new SeriesKey(tagID, sensor));
+        return all;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            for (Open open : series.values())
+                open.series.close();
+            series.clear();
+        } finally {
+            if (lockChannel.isOpen()) {
+                lock.release();
+                lockChannel.close();
+            }
+        }
+    }
+
+    /**
+     * Buffering writer of one download. Rows are collected and appended as one crash-safe batch on close.
+     */
+    public static class Ingest implements MeasurementWriter {
+        private final MeasurementStore store;
+        private final Open target;
+        private boolean closed = false;
+        private long[] times = new long[1024];
+        private short[] values = new short[1024];
+        private int count = 0;
+        private long skipped = 0;
+        private int appended = 0;
+
+        private Ingest(MeasurementStore store, Open target) {
+            this.store = store;
+            this.target = target;
+        }
+
+        @Override
+        public void writeRow(long epochSeconds, short fixedPoint) {
+            if (epochSeconds == NO_TIME) {
+                skipped++;
+                return;
+            }
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            times[count] = epochSeconds;
+            values[count] = fixedPoint;
+            count++;
+        }
+
+        @Override
+        public long getRows() {
+            return count;
+        }
+
+        /**
+         * @return Count of rows dropped for missing timestamp.
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return Count of newly stored points, available after close.
+         */
+        public int getAppended() {
+            return appended;
+        }
+
+        /**
+         * Appends the collected rows and releases the series.
+         *
+         * @throws IOException If writing fails.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                appended = target.series.append(times, values, count);
+                count = 0;
+            } finally {
+                store.release(target);
+            }
+        }
+    }
+}
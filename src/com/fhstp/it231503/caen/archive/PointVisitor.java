@@ -0,0 +1,17 @@
+package com.fhstp.it231503.caen.archive;
+
+/**
+ * Receiver of archived points during scans.
+ *
+ * @author Emil Sedlacek / it231503
+ */
+@FunctionalInterface
+public interface PointVisitor {
+    /**
+     * Receives one point.
+     *
+     * @param epochSeconds Timestamp in seconds (UTC)
+     * @param fixedPoint   Raw RT0013 fixed-point value or 0xFFFF if no sample is stored
+     */
+    void visit(long epochSeconds, short fixedPoint);
+}
@@ -0,0 +1,139 @@
+package com.fhstp.it231503.caen.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Background compactor of a MeasurementStore. Merges the small frames of individual tag syncs into full, sorted and
+ * packed segments, drops duplicates of overlapping downloads and applies retention. Raw points past retention only
+ * live on in the hourly and daily rollups.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Runs on one daemon thread with minimum priority and throttled I/O. Never interrupted, so file channels of the
+ * live store are not closed under it; close() waits for the current series to finish.
+ */
+public class StoreCompactor implements Closeable {
+    /**
+     * Compaction settings.
+     *
+     * @param rawRetention    Age after which raw points are dropped, null keeps all
+     * @param rollupRetention Age after which rollup buckets are dropped, null keeps all
+     * @param interval        Pause between runs
+     * @param bytesPerSecond  I/O budget of a run, 0 for unlimited
+     */
+    public record Policy(Duration rawRetention, Duration rollupRetention, Duration interval, long bytesPerSecond) {
+        /**
+         * Keeps everything, runs every 15 minutes with 2 MiB/s.
+         */
+        public static final Policy DEFAULT = new Policy(null, null, Duration.ofMinutes(15), 2L << 20);
+    }
+
+    private final MeasurementStore store;
+    private final Policy policy;
+    private Thread worker;
+    /**
+     * Held by the current run, so a manual run and the background thread never work at once.
+     */
+    private final ReentrantLock run = new ReentrantLock();
+    private volatile boolean running = false;
+
+    public StoreCompactor(MeasurementStore store, Policy policy) {
+        this.store = store;
+        this.policy = policy;
+    }
+
+    /**
+     * Starts the background thread, first run right away.
+     */
+    public synchronized void start() {
+        if (worker != null)
+            return;
+        running = true;
+        worker = new Thread(this::loop, "store-compactor");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    private void loop() {
+        while (running) {
+            runOnce();
+            synchronized (this) {
+                try {
+                    if (running)
+                        wait(policy.interval().toMillis());
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Function to compact every series that needs it, in the calling thread. Waits for a run of the background thread
+     * to finish first.
+     *
+     * @return Count of compacted series
+     */
+    public int runOnce() {
+        run.lock();
+        try {
+            return runExclusive();
+        } finally {
+            run.unlock();
+        }
+    }
+
+    private int runExclusive() {
+        Instant now = Instant.now();
+        long rawCutoff = (policy.rawRetention() != null) ? now.minus(policy.rawRetention()).getEpochSecond() : Long.MIN_VALUE;
+        long rollupCutoff = (policy.rollupRetention() != null) ? now.minus(policy.rollupRetention()).getEpochSecond() : Long.MIN_VALUE;
+        IoThrottle throttle = new IoThrottle(policy.bytesPerSecond());
+
+        int compacted = 0;
+        try {
+            for (MeasurementStore.SeriesKey key : store.seriesOnDisk()) {
+                if (!running && worker != null)
+                    break;
+                try {
+                    boolean done = store.withSeries(key.tagID(), key.sensor(), series -> {
+                        if (!series.needsCompaction(rawCutoff))
+                            return false;
+                        return series.compact(rawCutoff, rollupCutoff, throttle) >= 0;
+                    });
+                    if (done)
+                        compacted++;
+                } catch (IOException e) {
+                    System.err.println("Compaction of " + key + " failed: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Compaction failed: " + e.getMessage());
+        }
+        return compacted;
+    }
+
+    /**
+     * Stops the background thread after the current series.
+     */
+    @Override
+    public void close() {
+        Thread stopping;
+        synchronized (this) {
+            running = false;
+            notifyAll();
+            stopping = worker;
+            worker = null;
+        }
+        if (stopping == null)
+            return;
+        try {
+            stopping.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.fhstp.it231503.caen.archive;
+
+import com.fhstp.it231503.caen.export.MeasurementWriter;
+import com.fhstp.it231503.caen.rfid.RT0013;
+import com.fhstp.it231503.caen.util.binSetting;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.Lock;
+
+import static com.fhstp.it231503.caen.util.Helper.fixedpointToFloat;
+
+/**
+ * Static range query and aggregation engine over a MeasurementStore.
+ * Frames are picked through the sparse index and segments are scanned in parallel.
+ * Plain min/max/mean/count over hour or day aligned ranges are answered from the rollups without touching samples.
+ *
+ * @author Emil Sedlacek / it231503
+ */
+public class StoreQuery {
+    /**
+     * Shared pool for segment scans, bounded by core count.
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Aggregates of one time range. Missing samples are not counted.
+     *
+     * @param count        Count of samples
+     * @param min          Lowest value in °C or %, NaN if no samples
+     * @param max          Highest value in °C or %, NaN if no samples
+     * @param mean         Arithmetic mean in °C or %, NaN if no samples
+     * @param secondsAbove Seconds above threshold, each sample above it counts until the next sample (0 without threshold)
+     * @param firstEpoch   Timestamp of first sample, Long.MIN_VALUE if none
+     * @param lastEpoch    Timestamp of last sample, Long.MIN_VALUE if none
+     * @param binCounts    Samples per bin, empty if no bins given
+     */
+    public record Result(long count, float min, float max, double mean, long secondsAbove,
+                         long firstEpoch, long lastEpoch, int[] binCounts) {
+    }
+
+    /**
+     * Bucket widths of the rollups, aligned to UTC.
+     */
+    public enum Resolution {
+        HOUR(3600), DAY(86400);
+
+        private final long seconds;
+
+        Resolution(long seconds) {
+            this.seconds = seconds;
+        }
+
+        public long getSeconds() {
+            return seconds;
+        }
+
+        /**
+         * @param epochSeconds Timestamp in seconds (UTC)
+         * @return Start of the bucket holding said timestamp
+         */
+        public long bucketStart(long epochSeconds) {
+            return Math.floorDiv(epochSeconds, seconds) * seconds;
+        }
+
+        /**
+         * @return Whether a range border falls on a bucket border (unbounded borders do)
+         */
+        boolean isAligned(long epochSeconds) {
+            return epochSeconds == Long.MIN_VALUE || epochSeconds == Long.MAX_VALUE || bucketStart(epochSeconds) == epochSeconds;
+        }
+    }
+
+    /**
+     * Rollup bucket. Missing samples are not counted.
+     *
+     * @param start      Bucket start in seconds (UTC)
+     * @param count      Count of samples
+     * @param min        Lowest value in °C or %
+     * @param max        Highest value in °C or %
+     * @param mean       Arithmetic mean in °C or %
+     * @param firstEpoch Timestamp of first sample
+     * @param lastEpoch  Timestamp of last sample
+     */
+    public record Bucket(long start, long count, float min, float max, double mean, long firstEpoch, long lastEpoch) {
+    }
+
+    /**
+     * Function to read hourly or daily min/max/mean of one tag and sensor straight from its rollup.
+     *
+     * @param store      Store
+     * @param tagID      Tag ID as hex string
+     * @param sensor     Type of Sensor
+     * @param fromEpoch  First second (inclusive)
+     * @param toEpoch    Last second (exclusive)
+     * @param resolution Bucket width
+     * @return Buckets starting inside the range, in time order
+     * @throws IOException If the series cannot be opened.
+     */
+    public static List<Bucket> rollup(MeasurementStore store, String tagID, RT0013.BIN_SENSOR_TYPES sensor,
+                                      long fromEpoch, long toEpoch, Resolution resolution) throws IOException {
+        return store.withSeries(tagID, sensor, series -> series.rollup(resolution, fromEpoch, toEpoch));
+    }
+
+    /**
+     * Function to aggregate a time range of one tag and sensor. Covers the raw points only: points retired by
+     * retention (see StoreSeries.compact()) are left out, whatever the range, rollup() still has them.
+     *
+     * @param store     Store
+     * @param tagID     Tag ID as hex string
+     * @param sensor    Type of Sensor
+     * @param fromEpoch First second (inclusive)
+     * @param toEpoch   Last second (exclusive)
+     * @param threshold Threshold for time above, in °C or %, NaN if not needed
+     * @return Aggregates
+     * @throws IOException If reading fails.
+     */
+    public static Result aggregate(MeasurementStore store, String tagID, RT0013.BIN_SENSOR_TYPES sensor,
+                                   long fromEpoch, long toEpoch, float threshold) throws IOException {
+        return aggregate(store, tagID, sensor, fromEpoch, toEpoch, threshold, List.of());
+    }
+
+    /**
+     * Function to aggregate a time range of one tag and sensor and sort its samples into bins like the tag does,
+     * so REG_BIN_COUNTER_* can be audited against the raw samples. Points retired by retention are left out.
+     *
+     * @param store     Store
+     * @param tagID     Tag ID as hex string
+     * @param sensor    Type of Sensor
+     * @param fromEpoch First second (inclusive)
+     * @param toEpoch   Last second (exclusive)
+     * @param threshold Threshold for time above, in °C or %
+     * @param bins      Bin configuration of the tag (see RT0013manager.retrieveBinsConfiguration)
+     * @return Aggregates
+     * @throws IOException If reading fails.
+     * @implNote Counts only match when the tag stored every sample (SAMPLE_STORE enabled for all bins, memory not full).
+     */
+    public static Result aggregate(MeasurementStore store, String tagID, RT0013.BIN_SENSOR_TYPES sensor,
+                                   long fromEpoch, long toEpoch, float threshold, List<binSetting> bins) throws IOException {
+        return store.withSeries(tagID, sensor, series -> aggregate(series, sensor, fromEpoch, toEpoch, threshold, bins));
+    }
+
+    private static Result aggregate(StoreSeries series, RT0013.BIN_SENSOR_TYPES sensor,
+                                    long fromEpoch, long toEpoch, float threshold, List<binSetting> bins) throws IOException {
+        float[] limits = binLimits(bins);
+
+        // Rollups also hold retired points, only a range past the retention cutoff matches the raw scan
+        if (Float.isNaN(threshold) && limits.length == 0 && fromEpoch >= series.getRetainedFrom())
+            for (Resolution resolution : new Resolution[]{Resolution.DAY, Resolution.HOUR})
+                if (resolution.isAligned(fromEpoch) && resolution.isAligned(toEpoch))
+                    return fromRollup(series.rollup(resolution, fromEpoch, toEpoch));
+
+        Accumulator total;
+        Lock scanLock = series.scanLock();
+        scanLock.lock();
+        try {
+            if (!series.isOrdered()) {
+                // Backfilled history, needs the merged scan
+                total = new Accumulator(sensor, threshold, limits);
+                series.scan(fromEpoch, toEpoch, total);
+            } else {
+                List<SegmentTask> tasks = new ArrayList<>();
+                List<StoreSeries.Frame> segment = new ArrayList<>();
+                for (StoreSeries.Frame frame : series.framesIn(fromEpoch, toEpoch)) {
+                    if (!segment.isEmpty() && segment.getLast().segment() != frame.segment()) {
+                        tasks.add(new SegmentTask(series, segment, fromEpoch, toEpoch, threshold, limits));
+                        segment = new ArrayList<>();
+                    }
+                    segment.add(frame);
+                }
+                if (!segment.isEmpty())
+                    tasks.add(new SegmentTask(series, segment, fromEpoch, toEpoch, threshold, limits));
+
+                try {
+                    POOL.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                total = new Accumulator(sensor, threshold, limits);
+                for (SegmentTask task : tasks)
+                    total.merge(task.join());
+            }
+        } finally {
+            scanLock.unlock();
+        }
+        return total.result();
+    }
+
+    /**
+     * Function to merge rollup buckets into one result.
+     */
+    private static Result fromRollup(List<Bucket> buckets) {
+        long count = 0;
+        float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+        double sum = 0;
+        for (Bucket bucket : buckets) {
+            count += bucket.count();
+            sum += bucket.mean() * bucket.count();
+            min = Math.min(min, bucket.min());
+            max = Math.max(max, bucket.max());
+        }
+        if (count == 0)
+            return new Result(0, Float.NaN, Float.NaN, Double.NaN, 0, Long.MIN_VALUE, Long.MIN_VALUE, new int[0]);
+        return new Result(count, min, max, sum / count, 0, buckets.getFirst().firstEpoch(), buckets.getLast().lastEpoch(), new int[0]);
+    }
+
+    /**
+     * Function to turn a bin configuration into ascending upper limits. A bin whose limit does not exceed the
+     * previous one ends the configuration, like unused bins on the tag.
+     *
+     * @param bins Bin configuration, bin 0 first
+     * @return Upper limits of used bins
+     */
+    static float[] binLimits(List<binSetting> bins) {
+        if (bins == null || bins.isEmpty())
+            return new float[0];
+        float[] limits = new float[bins.size()];
+        int used = 0;
+        for (binSetting bin : bins) {
+            if (used > 0 && bin.getHighLimit() <= limits[used - 1])
+                break;
+            limits[used++] = bin.getHighLimit();
+        }
+        return Arrays.copyOf(limits, used);
+    }
+
+    /**
+     * Fork-join task scanning the frames of one segment.
+     */
+    @SuppressWarnings("serial") // Forked in process only, never serialized
+    private static class SegmentTask extends RecursiveTask<Accumulator> {
+        private final StoreSeries series;
+        private final List<StoreSeries.Frame> frames;
+        private final long fromEpoch;
+        private final long toEpoch;
+        private final float threshold;
+        private final float[] limits;
+
+        SegmentTask(StoreSeries series, List<StoreSeries.Frame> frames, long fromEpoch, long toEpoch, float threshold, float[] limits) {
+            this.series = series;
+            this.frames = frames;
+            this.fromEpoch = fromEpoch;
+            this.toEpoch = toEpoch;
+            this.threshold = threshold;
+            this.limits = limits;
+        }
+
+        @Override
+        protected Accumulator compute() {
+            Accumulator part = new Accumulator(series.getSensor(), threshold, limits);
+            PointVisitor filter = (time, value) -> {
+                if (time >= fromEpoch && time < toEpoch)
+                    part.visit(time, value);
+            };
+            try {
+                for (StoreSeries.Frame frame : frames)
+                    series.readFrame(frame, filter);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return part;
+        }
+    }
+
+    /**
+     * Running aggregates of points visited in time order. Partial results of consecutive ranges are merged in order.
+     */
+    private static class Accumulator implements PointVisitor {
+        private final RT0013.BIN_SENSOR_TYPES sensor;
+        private final float threshold;
+        private final float[] limits;
+        private final int[] binCounts;
+        private long count = 0;
+        private float min = Float.POSITIVE_INFINITY;
+        private float max = Float.NEGATIVE_INFINITY;
+        private double sum = 0;
+        private long secondsAbove = 0;
+        // First and last point of range, missing samples included, for time above across ranges
+        private long firstTime = Long.MIN_VALUE;
+        private long lastTime = Long.MIN_VALUE;
+        private boolean lastAbove = false;
+        private long firstSample = Long.MIN_VALUE;
+        private long lastSample = Long.MIN_VALUE;
+
+        Accumulator(RT0013.BIN_SENSOR_TYPES sensor, float threshold, float[] limits) {
+            this.sensor = sensor;
+            this.threshold = threshold;
+            this.limits = limits;
+            this.binCounts = new int[(limits.length == 0) ? 0 : Math.min(limits.length + 1, 6)];
+        }
+
+        @Override
+        public void visit(long epochSeconds, short fixedPoint) {
+            if (lastAbove)
+                secondsAbove += epochSeconds - lastTime;
+            if (firstTime == Long.MIN_VALUE)
+                firstTime = epochSeconds;
+            lastTime = epochSeconds;
+            lastAbove = false;
+            if (fixedPoint == MeasurementWriter.NO_VALUE)
+                return;
+
+            float value = fixedpointToFloat(sensor, fixedPoint);
+            lastAbove = value > threshold;
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            if (firstSample == Long.MIN_VALUE)
+                firstSample = epochSeconds;
+            lastSample = epochSeconds;
+            if (binCounts.length > 0)
+                binCounts[bin(value)]++;
+        }
+
+        /**
+         * Function to find the bin of a value: the first bin whose upper limit is above it, values above all limits
+         * go to the following bin.
+         */
+        private int bin(float value) {
+            for (int i = 0; i < limits.length; i++)
+                if (value < limits[i])
+                    return i;
+            return binCounts.length - 1;
+        }
+
+        /**
+         * Function to append the aggregates of the directly following range.
+         */
+        void merge(Accumulator next) {
+            if (next.firstTime == Long.MIN_VALUE)
+                return;
+            if (lastAbove)
+                secondsAbove += next.firstTime - lastTime;
+            if (firstTime == Long.MIN_VALUE)
+                firstTime = next.firstTime;
+            lastTime = next.lastTime;
+            lastAbove = next.lastAbove;
+            count += next.count;
+            sum += next.sum;
+            min = Math.min(min, next.min);
+            max = Math.max(max, next.max);
+            secondsAbove += next.secondsAbove;
+            if (firstSample == Long.MIN_VALUE)
+                firstSample = next.firstSample;
+            if (next.lastSample != Long.MIN_VALUE)
+                lastSample = next.lastSample;
+            for (int i = 0; i < binCounts.length; i++)
+                binCounts[i] += next.binCounts[i];
+        }
+
+        Result result() {
+            if (count == 0)
+                return new Result(0, Float.NaN, Float.NaN, Double.NaN, 0, Long.MIN_VALUE, Long.MIN_VALUE, binCounts);
+            return new Result(count, min, max, sum / count, secondsAbove, firstSample, lastSample, binCounts);
+        }
+    }
+}
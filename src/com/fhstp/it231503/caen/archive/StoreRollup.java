@@ -0,0 +1,234 @@
+package com.fhstp.it231503.caen.archive;
+
+import com.fhstp.it231503.caen.export.MeasurementWriter;
+import com.fhstp.it231503.caen.rfid.RT0013;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static com.fhstp.it231503.caen.util.Helper.fixedpointToFloat;
+
+/**
+ * Rollup table of one series and resolution, maintained incrementally on append. All numbers little-endian.
+ * <pre>
+ * Header (16 bytes): "RTRU" | u16 version | u8 resolution | u8 reserved | i64 watermark (points folded in)
+ * Record (48 bytes): i64 bucket start | i64 count | i64 first ts | i64 last ts | f32 min | f32 max | f64 sum
+ * </pre>
+ * Records are updated in place and the watermark is written last. A watermark not matching the series means
+ * the table missed an append and is rebuilt from the segments.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Not thread-safe, guarded by the owning StoreSeries.
+ */
+final class StoreRollup implements Closeable {
+    static final byte[] MAGIC = {'R', 'T', 'R', 'U'};
+    static final short VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 48;
+
+    /**
+     * Mutable bucket with its record slot.
+     */
+    private static final class Slot {
+        final int index;
+        final long start;
+        long count = 0;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        double sum = 0;
+
+        Slot(int index, long start) {
+            this.index = index;
+            this.start = start;
+        }
+
+        StoreQuery.Bucket toBucket() {
+            return new StoreQuery.Bucket(start, count, min, max, sum / count, first, last);
+        }
+    }
+
+    private final FileChannel channel;
+    private final StoreQuery.Resolution resolution;
+    private final RT0013.BIN_SENSOR_TYPES sensor;
+    private final TreeMap<Long, Slot> slots = new TreeMap<>();
+    private final Set<Slot> dirty = new LinkedHashSet<>();
+    private long watermark = 0;
+
+    /**
+     * Opens (or creates) a rollup table. A foreign or torn file is reset to an empty table with watermark -1.
+     *
+     * @param file       Table file
+     * @param resolution Bucket width
+     * @param sensor     Type of Sensor, for fixed-point conversion
+     * @throws IOException If the file cannot be opened.
+     */
+    StoreRollup(Path file, StoreQuery.Resolution resolution, RT0013.BIN_SENSOR_TYPES sensor) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.resolution = resolution;
+        this.sensor = sensor;
+
+        ByteBuffer all = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE)).order(ByteOrder.LITTLE_ENDIAN);
+        while (all.hasRemaining())
+            if (channel.read(all, all.position()) < 0)
+                break;
+        byte[] magic = new byte[4];
+        if (all.capacity() >= HEADER_BYTES)
+            all.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC) || all.getShort(4) != VERSION || all.get(6) != resolution.ordinal()
+                || (all.capacity() - HEADER_BYTES) % RECORD_BYTES != 0) {
+            resetFrom(Long.MIN_VALUE);
+            watermark = -1;
+            return;
+        }
+
+        watermark = all.getLong(8);
+        for (int index = 0; HEADER_BYTES + (index + 1) * RECORD_BYTES <= all.capacity(); index++) {
+            int at = HEADER_BYTES + index * RECORD_BYTES;
+            Slot slot = new Slot(index, all.getLong(at));
+            slot.count = all.getLong(at + 8);
+            slot.first = all.getLong(at + 16);
+            slot.last = all.getLong(at + 24);
+            slot.min = all.getFloat(at + 32);
+            slot.max = all.getFloat(at + 36);
+            slot.sum = all.getDouble(at + 40);
+            slots.put(slot.start, slot);
+        }
+    }
+
+    /**
+     * @return Count of series points folded in, -1 if unknown
+     */
+    long getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * Function to drop all buckets from the one holding a timestamp on. Older buckets are rewritten compactly.
+     *
+     * @param epochSeconds Timestamp in seconds (UTC), Long.MIN_VALUE drops all
+     * @throws IOException If writing fails.
+     */
+    void resetFrom(long epochSeconds) throws IOException {
+        long border = (epochSeconds == Long.MIN_VALUE || epochSeconds == Long.MAX_VALUE) ? epochSeconds : resolution.bucketStart(epochSeconds);
+        List<Slot> kept = new ArrayList<>(slots.headMap(border, false).values());
+        slots.clear();
+        dirty.clear();
+        channel.truncate(0);
+        for (Slot old : kept) {
+            Slot slot = new Slot(slots.size(), old.start);
+            slot.count = old.count;
+            slot.first = old.first;
+            slot.last = old.last;
+            slot.min = old.min;
+            slot.max = old.max;
+            slot.sum = old.sum;
+            slots.put(slot.start, slot);
+            dirty.add(slot);
+        }
+        watermark = 0;
+        commit(0);
+    }
+
+    /**
+     * Function to drop buckets starting before a timestamp (rollup retention).
+     *
+     * @param epochSeconds Timestamp in seconds (UTC)
+     * @throws IOException If writing fails.
+     */
+    void dropBefore(long epochSeconds) throws IOException {
+        if (slots.isEmpty() || slots.firstKey() >= epochSeconds)
+            return;
+        List<Slot> kept = new ArrayList<>(slots.tailMap(epochSeconds, true).values());
+        long keptWatermark = watermark;
+        slots.clear();
+        for (Slot slot : kept)
+            slots.put(slot.start, slot);
+        resetFrom(Long.MAX_VALUE);
+        commit(keptWatermark);
+    }
+
+    /**
+     * Function to fold one point in. Missing samples only move the watermark.
+     *
+     * @param epochSeconds Timestamp in seconds (UTC)
+     * @param fixedPoint   Raw fixed-point value
+     */
+    void add(long epochSeconds, short fixedPoint) {
+        if (fixedPoint == MeasurementWriter.NO_VALUE)
+            return;
+        long start = resolution.bucketStart(epochSeconds);
+        Slot slot = slots.get(start);
+        if (slot == null) {
+            slot = new Slot(slots.size(), start);
+            slots.put(start, slot);
+        }
+        float value = fixedpointToFloat(sensor, fixedPoint);
+        slot.count++;
+        slot.sum += value;
+        slot.min = Math.min(slot.min, value);
+        slot.max = Math.max(slot.max, value);
+        slot.first = Math.min(slot.first, epochSeconds);
+        slot.last = Math.max(slot.last, epochSeconds);
+        dirty.add(slot);
+    }
+
+    /**
+     * Function to persist changed buckets, then the new watermark.
+     *
+     * @param newWatermark Count of series points folded in
+     * @throws IOException If writing fails.
+     */
+    void commit(long newWatermark) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (Slot slot : dirty) {
+            record.clear();
+            record.putLong(slot.start).putLong(slot.count).putLong(slot.first).putLong(slot.last)
+                    .putFloat(slot.min).putFloat(slot.max).putDouble(slot.sum).flip();
+            long at = HEADER_BYTES + (long) slot.index * RECORD_BYTES;
+            while (record.hasRemaining())
+                at += channel.write(record, at);
+        }
+        dirty.clear();
+        channel.force(false);
+        watermark = newWatermark;
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        head.put(MAGIC).putShort(VERSION).put((byte) resolution.ordinal()).put((byte) 0).putLong(watermark).flip();
+        long at = 0;
+        while (head.hasRemaining())
+            at += channel.write(head, at);
+        channel.force(false);
+    }
+
+    /**
+     * Function to list buckets starting inside a time range.
+     *
+     * @param fromEpoch First second (inclusive)
+     * @param toEpoch   Last second (exclusive)
+     * @return Buckets in time order
+     */
+    List<StoreQuery.Bucket> range(long fromEpoch, long toEpoch) {
+        List<StoreQuery.Bucket> buckets = new ArrayList<>();
+        if (fromEpoch >= toEpoch)
+            return buckets;
+        for (Slot slot : slots.subMap(fromEpoch, true, toEpoch, false).values())
+            buckets.add(slot.toBucket());
+        return buckets;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
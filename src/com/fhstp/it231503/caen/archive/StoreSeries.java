@@ -0,0 +1,678 @@
+package com.fhstp.it231503.caen.archive;
+
+import com.fhstp.it231503.caen.rfid.RT0013;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, log-structured series of one tag and sensor inside a MeasurementStore. All numbers little-endian.
+ * <pre>
+ * Segment: "RTSG" | u16 version | u8 sensor | u8 reserved, followed by frames
+ * Frame:   i32 n | i64 first ts | i64 last ts | n * i32 delta to first ts | n * i16 raw value | u32 CRC32 of all before
+ * Packed:  i32 n | 0x80000000 | i64 first ts | i64 last ts | i32 length | GorillaCodec block | u32 CRC32 of all before
+ * </pre>
+ * Version 1 segments hold plain frames only and are read as they are, appends go to version 2 segments.
+ * Hourly and daily rollups (rollup-HOUR.rlp, rollup-DAY.rlp) are folded in on every append.
+ * One frame is written per appended batch and forced to disk before append returns. On open, frames are verified
+ * and a torn or corrupt tail is truncated. The frame headers form the sparse time index, kept in memory.
+ * Compaction leaves its retention cutoff in retention.wm (i64), older points are no longer accepted.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Thread-safe, all access synchronized on the series.
+ */
+final class StoreSeries implements Closeable {
+    static final byte[] SEGMENT_MAGIC = {'R', 'T', 'S', 'G'};
+    static final short SEGMENT_VERSION = 2;
+    static final int SEGMENT_HEADER_BYTES = 8;
+    static final int FRAME_HEADER_BYTES = 20;
+    static final int FRAME_TRAILER_BYTES = 4;
+    static final int POINT_BYTES = 6;
+    static final int PACKED_FLAG = 0x80000000;
+    /**
+     * Size after which a new segment is started.
+     */
+    static final long SEGMENT_LIMIT = 4L << 20;
+    /**
+     * Upper bound of points per frame, keeps single reads small.
+     */
+    static final int FRAME_LIMIT = 4096;
+    static final String COMPACT_SUFFIX = ".compact";
+    static final String RETIRED_SUFFIX = ".retired";
+    static final String RETENTION_FILE = "retention.wm";
+
+    /**
+     * Sparse index entry of one frame.
+     *
+     * @param segment Segment number (index in segment list)
+     * @param offset  Byte offset of frame in segment
+     * @param count   Points in frame
+     * @param first   Earliest timestamp in frame
+     * @param last    Latest timestamp in frame
+     * @param bytes   Size of frame on disk
+     * @param packed  Whether points are GorillaCodec encoded
+     */
+    record Frame(int segment, long offset, int count, long first, long last, int bytes, boolean packed) {
+        boolean overlaps(long fromEpoch, long toEpoch) {
+            return first < toEpoch && last >= fromEpoch;
+        }
+    }
+
+    private final Path directory;
+    private final RT0013.BIN_SENSOR_TYPES sensor;
+    private final List<FileChannel> segments = new CopyOnWriteArrayList<>();
+    private short activeVersion = 0;
+    private final List<Frame> frames = new ArrayList<>();
+    private long lastTimestamp = Long.MIN_VALUE;
+    private long size = 0;
+    private boolean ordered = true;
+    /**
+     * Points before were dropped by compaction (rollups still hold them), Long.MIN_VALUE if none.
+     */
+    private long retainedFrom = Long.MIN_VALUE;
+    private final Map<StoreQuery.Resolution, StoreRollup> rollups = new EnumMap<>(StoreQuery.Resolution.class);
+    /**
+     * Held (read) by scans working on frame lists outside the monitor, taken (write) when compaction swaps segments.
+     */
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+    /**
+     * Held by the running compaction, a second one would write the same copy directory.
+     */
+    private final ReentrantLock compacting = new ReentrantLock();
+
+    /**
+     * Opens (or creates) the series directory, verifies all segments and rebuilds the sparse index.
+     *
+     * @param directory Series directory
+     * @param sensor    Type of Sensor
+     * @throws IOException If a segment cannot be opened or has a foreign header.
+     */
+    StoreSeries(Path directory, RT0013.BIN_SENSOR_TYPES sensor) throws IOException {
+        this.directory = directory;
+        this.sensor = sensor;
+
+        // Finish or roll back an interrupted compaction
+        Path compacted = sibling(COMPACT_SUFFIX), retired = sibling(RETIRED_SUFFIX);
+        if (!Files.exists(directory) && Files.exists(compacted))
+            Files.move(compacted, directory, StandardCopyOption.ATOMIC_MOVE);
+        deleteTree(compacted);
+        deleteTree(retired);
+
+        Files.createDirectories(directory);
+        load();
+    }
+
+    /**
+     * Function to open all segments and rollups of the directory. Rollups that missed an append are refolded
+     * from the first stored point on, older buckets only exist there (retired raw data) and are kept.
+     */
+    private void load() throws IOException {
+        Path retention = directory.resolve(RETENTION_FILE);
+        byte[] cutoff = Files.exists(retention) ? Files.readAllBytes(retention) : new byte[0];
+        if (cutoff.length == Long.BYTES)
+            retainedFrom = ByteBuffer.wrap(cutoff).order(ByteOrder.LITTLE_ENDIAN).getLong();
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.seg")) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparing(Path::toString));
+        for (Path file : files)
+            openSegment(file);
+
+        for (StoreQuery.Resolution resolution : StoreQuery.Resolution.values()) {
+            StoreRollup rollup = new StoreRollup(directory.resolve("rollup-" + resolution + ".rlp"), resolution, sensor);
+            rollups.put(resolution, rollup);
+            if (rollup.getWatermark() != size) {
+                // Missed an append (or new table), fold stored points in again
+                long first = Long.MAX_VALUE;
+                for (Frame frame : frames)
+                    first = Math.min(first, frame.first());
+                rollup.resetFrom(first);
+                for (Frame frame : frames)
+                    readFrame(frame, rollup::add);
+                rollup.commit(size);
+            }
+        }
+    }
+
+    /**
+     * Function to reset the in-memory state and open the directory again, e.g. after segments were swapped.
+     */
+    private void reopen() throws IOException {
+        activeVersion = 0;
+        lastTimestamp = Long.MIN_VALUE;
+        size = 0;
+        ordered = true;
+        retainedFrom = Long.MIN_VALUE;
+        load();
+    }
+
+    private Path sibling(String suffix) {
+        return directory.resolveSibling(directory.getFileName() + suffix);
+    }
+
+    private static void deleteTree(Path path) throws IOException {
+        if (!Files.exists(path))
+            return;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+            for (Path file : stream)
+                Files.delete(file);
+        }
+        Files.delete(path);
+    }
+
+    private static Path segmentFile(Path directory, int number) {
+        return directory.resolve(String.format("segment-%06d.seg", number));
+    }
+
+    private void openSegment(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int segment = segments.size();
+        segments.add(channel);
+
+        ByteBuffer head = ByteBuffer.allocate(SEGMENT_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        if (readFully(channel, head, 0) < SEGMENT_HEADER_BYTES) {
+            // Fresh or torn on creation
+            head.clear().put(SEGMENT_MAGIC).putShort(SEGMENT_VERSION).put((byte) sensor.ordinal()).put((byte) 0).flip();
+            channel.truncate(0);
+            channel.write(head, 0);
+            channel.force(true);
+            activeVersion = SEGMENT_VERSION;
+            return;
+        }
+        byte[] magic = new byte[4];
+        head.get(0, magic);
+        short version = head.getShort(4);
+        if (!Arrays.equals(magic, SEGMENT_MAGIC) || version < 1 || version > SEGMENT_VERSION || head.get(6) != sensor.ordinal())
+            throw new IOException("Not a segment of " + sensor + ": " + file);
+        activeVersion = version;
+
+        long offset = SEGMENT_HEADER_BYTES;
+        long end = channel.size();
+        ByteBuffer frameHead = ByteBuffer.allocate(FRAME_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (offset < end) {
+            Frame frame = verifyFrame(channel, segment, offset, end, frameHead, version);
+            if (frame == null) {
+                System.err.println("Truncating corrupt tail of " + file + " at " + offset);
+                channel.truncate(offset);
+                channel.force(true);
+                break;
+            }
+            addFrame(frame);
+            offset += frame.bytes();
+        }
+    }
+
+    /**
+     * Function to check one frame against its CRC.
+     *
+     * @return Frame or null if torn or corrupt
+     */
+    private Frame verifyFrame(FileChannel channel, int segment, long offset, long end, ByteBuffer frameHead, short version) throws IOException {
+        frameHead.clear();
+        if (readFully(channel, frameHead, offset) < FRAME_HEADER_BYTES)
+            return null;
+        int count = frameHead.getInt(0) & ~PACKED_FLAG;
+        boolean packed = (frameHead.getInt(0) & PACKED_FLAG) != 0;
+        if (count <= 0 || count > FRAME_LIMIT || (packed && version < 2))
+            return null;
+
+        int bytes = frameBytes(count);
+        if (packed) {
+            ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            if (readFully(channel, length, offset + FRAME_HEADER_BYTES) < 4)
+                return null;
+            int payload = length.getInt(0);
+            if (payload <= 0 || payload > count * POINT_BYTES * 2)
+                return null;
+            bytes = packedFrameBytes(payload);
+        }
+        if (offset + bytes > end)
+            return null;
+
+        ByteBuffer body = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, body, offset);
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, body.capacity() - FRAME_TRAILER_BYTES);
+        if ((int) crc.getValue() != body.getInt(body.capacity() - FRAME_TRAILER_BYTES))
+            return null;
+        return new Frame(segment, offset, count, frameHead.getLong(4), frameHead.getLong(12), bytes, packed);
+    }
+
+    private void addFrame(Frame frame) {
+        if (frame.first() <= lastTimestamp)
+            ordered = false;
+        frames.add(frame);
+        lastTimestamp = Math.max(lastTimestamp, frame.last());
+        size += frame.count();
+    }
+
+    static int frameBytes(int count) {
+        return FRAME_HEADER_BYTES + count * POINT_BYTES + FRAME_TRAILER_BYTES;
+    }
+
+    static int packedFrameBytes(int payload) {
+        return FRAME_HEADER_BYTES + 4 + payload + FRAME_TRAILER_BYTES;
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0)
+                break;
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Function to append a batch. Points already stored (same timestamp) and duplicates inside the batch are dropped,
+     * so re-ingesting an overlapping download is idempotent. So are points before the retention cutoff of the last
+     * compaction, the rollups already hold them.
+     *
+     * @param times  Timestamps in seconds (UTC), any order
+     * @param values Raw fixed-point values
+     * @param count  Count of valid entries
+     * @return Count of newly stored points
+     * @throws IOException If writing fails.
+     */
+    synchronized int append(long[] times, short[] values, int count) throws IOException {
+        long[] sortedTimes = times;
+        short[] sortedValues = values;
+        if (!isSorted(times, count)) {
+            sortedTimes = Arrays.copyOf(times, count);
+            sortedValues = Arrays.copyOf(values, count);
+            sortByTime(sortedTimes, sortedValues, count);
+        }
+
+        // Timestamps already stored in the overlapping range
+        Set<Long> known = new HashSet<>();
+        if (count > 0 && sortedTimes[0] <= lastTimestamp) {
+            long from = sortedTimes[0], to = sortedTimes[count - 1] + 1;
+            for (Frame frame : frames)
+                if (frame.overlaps(from, to))
+                    readFrame(frame, (time, value) -> known.add(time));
+        }
+
+        long[] newTimes = new long[count];
+        short[] newValues = new short[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (sortedTimes[i] < retainedFrom || (n > 0 && newTimes[n - 1] == sortedTimes[i]) || known.contains(sortedTimes[i]))
+                continue;
+            newTimes[n] = sortedTimes[i];
+            newValues[n] = sortedValues[i];
+            n++;
+        }
+
+        int start = 0;
+        while (start < n) {
+            int end = start + 1;
+            while (end < n && end - start < FRAME_LIMIT && newTimes[end] - newTimes[start] <= Integer.MAX_VALUE)
+                end++;
+            writeFrame(newTimes, newValues, start, end);
+            start = end;
+        }
+
+        if (n > 0)
+            for (StoreRollup rollup : rollups.values()) {
+                for (int i = 0; i < n; i++)
+                    rollup.add(newTimes[i], newValues[i]);
+                rollup.commit(size);
+            }
+        return n;
+    }
+
+    private static boolean isSorted(long[] times, int count) {
+        for (int i = 1; i < count; i++)
+            if (times[i] < times[i - 1])
+                return false;
+        return true;
+    }
+
+    /**
+     * Stable in-place sort of both columns by timestamp.
+     */
+    private static void sortByTime(long[] times, short[] values, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++)
+            order[i] = i;
+        long[] t = Arrays.copyOf(times, count);
+        short[] v = Arrays.copyOf(values, count);
+        Arrays.sort(order, (a, b) -> Long.compare(t[a], t[b]));
+        for (int i = 0; i < count; i++) {
+            times[i] = t[order[i]];
+            values[i] = v[order[i]];
+        }
+    }
+
+    /**
+     * Function to write one frame, packed unless packing does not pay off.
+     */
+    private void writeFrame(long[] times, short[] values, int from, int to) throws IOException {
+        FileChannel channel = activeSegment();
+        int count = to - from;
+        byte[] payload = GorillaCodec.encode(times, values, from, to);
+        boolean packed = packedFrameBytes(payload.length) < frameBytes(count);
+
+        ByteBuffer frame = ByteBuffer.allocate(packed ? packedFrameBytes(payload.length) : frameBytes(count)).order(ByteOrder.LITTLE_ENDIAN);
+        frame.putInt(packed ? (count | PACKED_FLAG) : count).putLong(times[from]).putLong(times[to - 1]);
+        if (packed)
+            frame.putInt(payload.length).put(payload);
+        else {
+            for (int i = from; i < to; i++)
+                frame.putInt((int) (times[i] - times[from]));
+            for (int i = from; i < to; i++)
+                frame.putShort(values[i]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(frame.array(), 0, frame.position());
+        frame.putInt((int) crc.getValue()).flip();
+
+        long offset = channel.size();
+        while (frame.hasRemaining())
+            offset += channel.write(frame, offset);
+        channel.force(false);
+        addFrame(new Frame(segments.size() - 1, offset - frame.capacity(), count, times[from], times[to - 1], frame.capacity(), packed));
+    }
+
+    private FileChannel activeSegment() throws IOException {
+        if (segments.isEmpty() || segments.getLast().size() >= SEGMENT_LIMIT || activeVersion < SEGMENT_VERSION)
+            openSegment(segmentFile(directory, segments.size()));
+        return segments.getLast();
+    }
+
+    /**
+     * Function to read all points of one frame. Safe to call concurrently with appends.
+     *
+     * @param frame   Index entry
+     * @param visitor Receiver of points, in time order
+     * @throws IOException If reading fails.
+     */
+    void readFrame(Frame frame, PointVisitor visitor) throws IOException {
+        if (frame.packed()) {
+            ByteBuffer payload = ByteBuffer.allocate(frame.bytes() - FRAME_HEADER_BYTES - 4 - FRAME_TRAILER_BYTES);
+            readFully(segments.get(frame.segment()), payload, frame.offset() + FRAME_HEADER_BYTES + 4);
+            GorillaCodec.decode(payload.flip(), frame.count(), frame.first(), visitor);
+            return;
+        }
+        ByteBuffer body = ByteBuffer.allocate(frame.count() * POINT_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(segments.get(frame.segment()), body, frame.offset() + FRAME_HEADER_BYTES);
+        int values = frame.count() * 4;
+        for (int i = 0; i < frame.count(); i++)
+            visitor.visit(frame.first() + body.getInt(4 * i), body.getShort(values + 2 * i));
+    }
+
+    /**
+     * Function to visit all stored points of a time range in time order.
+     *
+     * @param fromEpoch First second (inclusive)
+     * @param toEpoch   Last second (exclusive)
+     * @param visitor   Receiver of points
+     * @return Count of visited points
+     * @throws IOException If reading fails.
+     */
+    synchronized long scan(long fromEpoch, long toEpoch, PointVisitor visitor) throws IOException {
+        long[] visited = {0};
+        PointVisitor filter = (time, value) -> {
+            if (time >= fromEpoch && time < toEpoch) {
+                visitor.visit(time, value);
+                visited[0]++;
+            }
+        };
+        List<Frame> hits = framesIn(fromEpoch, toEpoch);
+        if (ordered) {
+            for (Frame frame : hits)
+                readFrame(frame, filter);
+            return visited[0];
+        }
+
+        // Backfilled frames overlap, merge through a sort
+        List<long[]> points = new ArrayList<>();
+        for (Frame frame : hits)
+            readFrame(frame, (time, value) -> points.add(new long[]{time, value}));
+        points.sort(Comparator.comparingLong(point -> point[0]));
+        for (long[] point : points)
+            filter.visit(point[0], (short) point[1]);
+        return visited[0];
+    }
+
+    /**
+     * Function to look up the sparse index.
+     *
+     * @param fromEpoch First second (inclusive)
+     * @param toEpoch   Last second (exclusive)
+     * @return Frames that may hold points of the range, in append order
+     */
+    synchronized List<Frame> framesIn(long fromEpoch, long toEpoch) {
+        List<Frame> hits = new ArrayList<>();
+        for (Frame frame : frames)
+            if (frame.overlaps(fromEpoch, toEpoch))
+                hits.add(frame);
+        return hits;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    RT0013.BIN_SENSOR_TYPES getSensor() {
+        return sensor;
+    }
+
+    /**
+     * Function to read buckets of a rollup table.
+     *
+     * @param resolution Bucket width
+     * @param fromEpoch  First second (inclusive)
+     * @param toEpoch    Last second (exclusive)
+     * @return Buckets starting inside the range, in time order
+     */
+    synchronized List<StoreQuery.Bucket> rollup(StoreQuery.Resolution resolution, long fromEpoch, long toEpoch) {
+        return rollups.get(resolution).range(fromEpoch, toEpoch);
+    }
+
+    /**
+     * @return Lock keeping frame lists valid, to be taken before framesIn when reading outside the monitor
+     */
+    Lock scanLock() {
+        return swapLock.readLock();
+    }
+
+    /**
+     * @return Whether compaction would pay off: many small frames, overlapping frames or points past the retention
+     */
+    synchronized boolean needsCompaction(long rawCutoff) {
+        if (frames.isEmpty())
+            return false;
+        if (!ordered || frames.getFirst().first() < rawCutoff)
+            return true;
+        return frames.size() > 8 && size / frames.size() < FRAME_LIMIT / 2;
+    }
+
+    /**
+     * Function to rewrite the series into full, sorted and packed frames, dropping duplicates and points before the
+     * retention cutoff. Rollups keep the dropped points, so the cutoff is kept and older points are no longer appended.
+     * The copy is written next to the series with appends going on, streaming frames in order of their first timestamp
+     * and holding only points of overlapping frames in memory. Appends made meanwhile are carried over and the
+     * directories are swapped at the end.
+     *
+     * @param rawCutoff    Points before are dropped (Long.MIN_VALUE keeps all)
+     * @param rollupCutoff Rollup buckets starting before are dropped (Long.MIN_VALUE keeps all)
+     * @param throttle     I/O budget of the copy
+     * @return Count of points dropped, -1 if another compaction of the series is running
+     * @throws IOException If reading or writing fails, the series stays as it was.
+     */
+    long compact(long rawCutoff, long rollupCutoff, IoThrottle throttle) throws IOException {
+        if (!compacting.tryLock())
+            return -1;
+        try {
+            return compactExclusive(rawCutoff, rollupCutoff, throttle);
+        } finally {
+            compacting.unlock();
+        }
+    }
+
+    private long compactExclusive(long rawCutoff, long rollupCutoff, IoThrottle throttle) throws IOException {
+        List<Frame> snapshot;
+        long watermark;
+        synchronized (this) {
+            snapshot = List.copyOf(frames);
+            watermark = Math.max(retainedFrom, rawCutoff);
+        }
+
+        Path compacted = sibling(COMPACT_SUFFIX);
+        deleteTree(compacted);
+        StoreSeries target = new StoreSeries(compacted, sensor);
+        try {
+            // Merge frames by first timestamp, points before the next frame's first are final
+            List<Frame> byFirst = new ArrayList<>(snapshot);
+            byFirst.sort(Comparator.comparingLong(Frame::first));
+            TreeMap<Long, Short> pending = new TreeMap<>();
+            PointVisitor collect = (time, value) -> {
+                if (time >= rawCutoff)
+                    pending.putIfAbsent(time, value);
+            };
+            for (int i = 0; i < byFirst.size(); i++) {
+                Frame frame = byFirst.get(i);
+                readFrame(frame, collect);
+                throttle.acquire(frame.bytes());
+                boolean last = i == byFirst.size() - 1;
+                flush(pending, last ? Long.MAX_VALUE : byFirst.get(i + 1).first(), last, target, throttle);
+            }
+
+            swapLock.writeLock().lock();
+            try {
+                synchronized (this) {
+                    // Carry over appends made while copying
+                    for (Frame frame : frames.subList(snapshot.size(), frames.size())) {
+                        long[] lateTimes = new long[frame.count()];
+                        short[] lateValues = new short[frame.count()];
+                        int[] late = {0};
+                        readFrame(frame, (time, value) -> {
+                            lateTimes[late[0]] = time;
+                            lateValues[late[0]++] = value;
+                        });
+                        target.append(lateTimes, lateValues, late[0]);
+                    }
+                    long after = target.size();
+                    target.close();
+
+                    for (StoreQuery.Resolution resolution : StoreQuery.Resolution.values()) {
+                        Path file = compacted.resolve("rollup-" + resolution + ".rlp");
+                        Files.copy(directory.resolve(file.getFileName()), file, StandardCopyOption.REPLACE_EXISTING);
+                        try (StoreRollup rollup = new StoreRollup(file, resolution, sensor)) {
+                            if (rollupCutoff != Long.MIN_VALUE)
+                                rollup.dropBefore(rollupCutoff);
+                            rollup.commit(after);
+                        }
+                    }
+                    if (watermark != Long.MIN_VALUE)
+                        Files.write(compacted.resolve(RETENTION_FILE), ByteBuffer.allocate(Long.BYTES)
+                                .order(ByteOrder.LITTLE_ENDIAN).putLong(watermark).array());
+
+                    long dropped = size - after;
+                    close();
+                    Path retired = sibling(RETIRED_SUFFIX);
+                    try {
+                        Files.move(directory, retired, StandardCopyOption.ATOMIC_MOVE);
+                        Files.move(compacted, directory, StandardCopyOption.ATOMIC_MOVE);
+                        deleteTree(retired);
+                    } catch (IOException e) {
+                        // Roll back a half-done swap, the series must stay open either way
+                        try {
+                            if (!Files.exists(directory))
+                                Files.move(retired, directory, StandardCopyOption.ATOMIC_MOVE);
+                            reopen();
+                        } catch (IOException again) {
+                            e.addSuppressed(again);
+                        }
+                        throw e;
+                    }
+                    reopen();
+                    return dropped;
+                }
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+        } finally {
+            target.close();
+        }
+    }
+
+    /**
+     * Function to write points of a merge window in full frames.
+     *
+     * @param pending Points read but not yet written, in time order
+     * @param limit   Points before are final, no frame left to read holds any
+     * @param all     Whether to write a last, partial frame too
+     */
+    private static void flush(TreeMap<Long, Short> pending, long limit, boolean all, StoreSeries target, IoThrottle throttle) throws IOException {
+        long[] times = new long[FRAME_LIMIT];
+        short[] values = new short[FRAME_LIMIT];
+        while (true) {
+            int n = 0;
+            for (Map.Entry<Long, Short> point : pending.entrySet()) {
+                if (n == FRAME_LIMIT || (!all && point.getKey() >= limit))
+                    break;
+                times[n] = point.getKey();
+                values[n++] = point.getValue();
+            }
+            if (n == 0 || (n < FRAME_LIMIT && !all))
+                return;
+            target.append(times, values, n);
+            throttle.acquire((long) n * POINT_BYTES);
+            for (int i = 0; i < n; i++)
+                pending.pollFirstEntry();
+        }
+    }
+
+    /**
+     * @return Whether frames are stored in ascending, non-overlapping time order
+     */
+    synchronized boolean isOrdered() {
+        return ordered;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return Retention cutoff of the last compaction, points before only live on in the rollups; Long.MIN_VALUE if none
+     */
+    synchronized long getRetainedFrom() {
+        return retainedFrom;
+    }
+
+    synchronized long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (FileChannel channel : segments)
+            channel.close();
+        for (StoreRollup rollup : rollups.values())
+            rollup.close();
+        segments.clear();
+        rollups.clear();
+        frames.clear();
+    }
+}
@@ -1,11 +1,40 @@
 package com.fhstp.it231503.caen.cli;
 
 import com.caen.RFIDLibrary.CAENRFIDTag;
+import com.fhstp.it231503.caen.archive.ColumnarArchive;
+import com.fhstp.it231503.caen.archive.CsvImporter;
+import com.fhstp.it231503.caen.archive.MeasurementStore;
+import com.fhstp.it231503.caen.archive.StoreCompactor;
+import com.fhstp.it231503.caen.archive.StoreQuery;
+import com.fhstp.it231503.caen.event.InventoryEvent;
+import com.fhstp.it231503.caen.event.TagPresence;
+import com.fhstp.it231503.caen.export.ExportFormat;
+import com.fhstp.it231503.caen.export.ExportFormats;
+import com.fhstp.it231503.caen.export.ExportOptions;
+import com.fhstp.it231503.caen.export.LttbWriter;
 import com.fhstp.it231503.caen.rfid.RT0013;
+import com.fhstp.it231503.caen.rfid.RT0013decoder;
+import com.fhstp.it231503.caen.rfid.RT0013inventoryLoop;
 import com.fhstp.it231503.caen.rfid.RT0013manager;
-
+import com.fhstp.it231503.caen.rfid.RT0013pipeline;
+import com.fhstp.it231503.caen.rfid.RT0013region;
+import com.fhstp.it231503.caen.rfid.RT0013scheduler;
+import com.fhstp.it231503.caen.util.measurmentPoint;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.Flow;
 
 import static com.fhstp.it231503.caen.util.Helper.*;
 
@@ -34,6 +63,11 @@ public class RFIDTagConsoleApp {
      * Array the result of inventory is saved to. Is the space to choose a tag from.
      */
     private CAENRFIDTag[] myTags = null;
+    /**
+     * Local measurement store, opened on first use together with its background compactor.
+     */
+    private MeasurementStore myStore = null;
+    private StoreCompactor myCompactor = null;
 
     ////////////////////// Menu DATA
 
@@ -109,7 +143,10 @@ public class RFIDTagConsoleApp {
             {"0", "BACK - Goes back..."},
             {"1", "LIST RAW DATA - Lists ALL DATA generated by tag."},
             {"2", "LIST RECENT DATA - Decodes most recent DATA generated by tag."},
-            {"3", "EXPORT DATA - Writes all log TAGDATA to csv."},
+            {"3", "EXPORT DATA - Writes all log TAGDATA to csv, jsonl or binary."},
+            {"4", "ARCHIVE DATA - Merges all log TAGDATA into the local store."},
+            {"5", "AUDIT BINS - Compares BIN COUNTERS with samples in the local store."},
+            {"6", "ARCHIVE FILES - Writes all log TAGDATA to columnar archive files (.rtca)."},
             {"x", "Exit program"}
     };
 
@@ -122,9 +159,31 @@ public class RFIDTagConsoleApp {
     /**
      * Main loop the CLI is running in. Its intended subfunctions lead to menus according to enum clistate. Init functions and the main catch are called here.
      *
-     * @param args First entry carries COM-Port (exp: "COM4")
+     * @param args First entry carries COM-Port (exp: "COM4"), "query" for the offline store query (see runQuery)
+     *             "compact" for a foreground store compaction (see runCompact), "import" for CSV files (see runImport)
+     *             or "watch"/"gate" for continuous inventory without/with download (see runWatch)
      */
     public void run(String[] args) {
+        if (args.length > 0 && "query".equalsIgnoreCase(args[0])) {
+            runQuery(args);
+            return;
+        }
+        if (args.length > 0 && "compact".equalsIgnoreCase(args[0])) {
+            runCompact(args);
+            return;
+        }
+        if (args.length > 0 && "import".equalsIgnoreCase(args[0])) {
+            runImport(args);
+            return;
+        }
+        if (args.length > 1 && "watch".equalsIgnoreCase(args[0])) {
+            runWatch(args, false);
+            return;
+        }
+        if (args.length > 1 && "gate".equalsIgnoreCase(args[0])) {
+            runWatch(args, true);
+            return;
+        }
         try {
             System.out.println("Initializing reader, and virtual source...");
             myRT0013.myRT0013rain.openRessources(args[0]);
@@ -147,9 +206,255 @@ public class RFIDTagConsoleApp {
             e.printStackTrace();
         } finally {
             init_resetTagRegister();
+            closeStore();
         }
     }
 
+    /**
+     * Subcommand scanning the reader field continuously and printing tags arriving and departing until Enter is pressed.
+     * With download, every arriving tag is read out and its logs are merged into the local store (see RT0013pipeline).
+     * Usage: watch|gate COM-Port [cadence in ms [departure after ms]]
+     *
+     * @param args     Subcommand arguments, first entry is "watch" or "gate"
+     * @param download Whether arriving tags are downloaded
+     */
+    private void runWatch(String[] args, boolean download) {
+        int cadence = parseIntInput((args.length > 2) ? args[2].trim() : null, -1);
+        int departAfter = parseIntInput((args.length > 3) ? args[3].trim() : null, -1);
+        RT0013inventoryLoop.Policy policy = new RT0013inventoryLoop.Policy(
+                (cadence > 0) ? Duration.ofMillis(cadence) : RT0013inventoryLoop.Policy.DEFAULT.cadence(),
+                (departAfter >= 0) ? Duration.ofMillis(departAfter) : RT0013inventoryLoop.Policy.DEFAULT.departAfter());
+        try {
+            System.out.println("Initializing reader, and virtual source...");
+            myRT0013.myRT0013rain.openRessources(args[1]);
+            myRT0013.getEvents().inventory().subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(InventoryEvent event) {
+                    TagPresence presence = event.presence();
+                    String rssi = (presence.rssi() != null) ? " / RSSI: " + presence.rssi() : "";
+                    if (event.kind() == InventoryEvent.Kind.ARRIVED)
+                        System.out.println(formatEpochMillis(event.epochMillis()) + " + " + event.tagID() + rssi);
+                    else
+                        System.out.println(formatEpochMillis(event.epochMillis()) + " - " + event.tagID()
+                                + " - In field: " + presence.dwellMillis() + " ms / Reads: " + presence.reads() + rssi);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    System.err.println("Watching failed: " + throwable.getMessage());
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+            RT0013pipeline pipeline = null;
+            if (download) {
+                pipeline = new RT0013pipeline(myRT0013, RT0013pipeline.Options.storing(openStore()));
+                pipeline.start();
+            }
+            myRT0013.startInventory(policy);
+            System.out.println("Watching the field every " + policy.cadence().toMillis() + " ms, press Enter to stop...");
+            scanner.nextLine();
+            RT0013inventoryLoop loop = myRT0013.getInventoryLoop();
+            myRT0013.stopInventory();
+            if (pipeline != null) {
+                System.out.println("Finishing downloads...");
+                pipeline.close();
+                for (RT0013pipeline.StageStats stats : pipeline.getStats())
+                    System.out.println(stats);
+                System.out.println("RF link busy: " + String.format("%.0f", pipeline.getLinkUtilization() * 100) + " %");
+            }
+            RT0013scheduler scheduler = myRT0013.myRT0013rain.getScheduler();
+            System.out.println("Link grants: " + scheduler.getGrants() + " / Mean wait: " + String.format("%.1f", scheduler.getMeanWaitMillis())
+                    + " ms / Missed deadlines: " + scheduler.getMissed());
+            System.out.println("Rounds: " + loop.getRounds() + " / Failed: " + loop.getFailures()
+                    + " / Mean round: " + String.format("%.1f", loop.getMeanRoundMillis()) + " ms");
+            System.out.println("Tags in field: " + myRT0013.getEvents().presence().size());
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            myRT0013.stopInventory();
+            myRT0013.getEvents().close();
+            myRT0013.bufferClose();
+            myRT0013.myRT0013rain.closeResources();
+            closeStore();
+        }
+    }
+
+    /**
+     * Opens the local store on first use and starts its background compactor.
+     *
+     * @return Store
+     * @throws IOException If the store cannot be opened.
+     */
+    private MeasurementStore openStore() throws IOException {
+        if (myStore == null) {
+            myStore = new MeasurementStore(MeasurementStore.DEFAULT_ROOT);
+            myCompactor = new StoreCompactor(myStore, StoreCompactor.Policy.DEFAULT);
+            myCompactor.start();
+        }
+        return myStore;
+    }
+
+    private void closeStore() {
+        if (myStore == null)
+            return;
+        myCompactor.close();
+        try {
+            myStore.close();
+        } catch (IOException e) {
+            System.err.println("Closing store failed: " + e.getMessage());
+        }
+        myStore = null;
+        myCompactor = null;
+    }
+
+    /**
+     * Offline subcommand importing exported CSV files into the local store, no reader needed.
+     * Usage: import path... where a path is a "tagID_SENSOR_data.csv(.gz)" file or a directory searched recursively
+     *
+     * @param args Subcommand arguments, first entry is "import"
+     */
+    private void runImport(String[] args) {
+        try (MeasurementStore store = new MeasurementStore(MeasurementStore.DEFAULT_ROOT)) {
+            long started = System.nanoTime();
+            List<Path> files = new ArrayList<>();
+            for (int i = 1; i < args.length; i++) {
+                Path path = Path.of(args[i]);
+                if (Files.isDirectory(path)) {
+                    CsvImporter.Summary summary = CsvImporter.importDirectory(store, path);
+                    System.out.println(path + ": " + summary);
+                } else
+                    files.add(path);
+            }
+            if (!files.isEmpty())
+                System.out.println("Files: " + CsvImporter.importFiles(store, files));
+            System.out.println("Import took " + (System.nanoTime() - started) / 1_000_000 + " ms.");
+        } catch (IOException e) {
+            System.err.println("Import failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Offline subcommand compacting the local store once, unthrottled, no reader needed.
+     * Usage: compact [raw retention in days [rollup retention in days]]
+     *
+     * @param args Subcommand arguments, first entry is "compact"
+     */
+    private void runCompact(String[] args) {
+        int rawDays = parseIntInput((args.length > 1) ? args[1].trim() : null, -1);
+        int rollupDays = parseIntInput((args.length > 2) ? args[2].trim() : null, -1);
+        StoreCompactor.Policy policy = new StoreCompactor.Policy(
+                (rawDays > 0) ? Duration.ofDays(rawDays) : null,
+                (rollupDays > 0) ? Duration.ofDays(rollupDays) : null,
+                StoreCompactor.Policy.DEFAULT.interval(), 0);
+        try (MeasurementStore store = new MeasurementStore(MeasurementStore.DEFAULT_ROOT)) {
+            System.out.println("Compacted series: " + new StoreCompactor(store, policy).runOnce());
+        } catch (IOException e) {
+            System.err.println("Compaction failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Offline subcommand answering range queries from the local store, no reader needed.
+     * Usage: query [tagID [SENSOR [from [to [threshold|HOUR|DAY]]]]], dates as "yyyy-MM-dd[ HH:mm[:ss]]" in UTC.
+     * Without tag ID all stored tags are listed. HOUR or DAY lists the rollup buckets of the range.
+     * Usage for archive files: query file.rtca [from [to]]
+     *
+     * @param args Subcommand arguments, first entry is "query"
+     */
+    private void runQuery(String[] args) {
+        if (args.length > 1 && args[1].toLowerCase().endsWith(".rtca")) {
+            runArchiveQuery(args);
+            return;
+        }
+        try (MeasurementStore store = new MeasurementStore(MeasurementStore.DEFAULT_ROOT)) {
+            if (args.length < 2) {
+                for (String tagID : store.tagIDs())
+                    System.out.println(tagID + ": " + store.size(tagID, RT0013.BIN_SENSOR_TYPES.TEMPERATURE) + " temperature, "
+                            + store.size(tagID, RT0013.BIN_SENSOR_TYPES.HUMIDITY) + " humidity samples");
+                return;
+            }
+            List<RT0013.BIN_SENSOR_TYPES> sensors = (args.length > 2)
+                    ? List.of(RT0013.BIN_SENSOR_TYPES.valueOf(args[2].trim().toUpperCase()))
+                    : List.of(RT0013.BIN_SENSOR_TYPES.values());
+            long from = parseEpochInput((args.length > 3) ? args[3] : null, Long.MIN_VALUE);
+            long to = parseEpochInput((args.length > 4) ? args[4] : null, Long.MAX_VALUE);
+            String last = (args.length > 5) ? args[5].trim().toUpperCase() : "";
+            if (last.equals("HOUR") || last.equals("DAY")) {
+                for (RT0013.BIN_SENSOR_TYPES sensorType : sensors) {
+                    System.out.println(spacer + args[1] + " " + sensorType);
+                    for (StoreQuery.Bucket bucket : StoreQuery.rollup(store, args[1], sensorType, from, to, StoreQuery.Resolution.valueOf(last)))
+                        System.out.println(formatEpoch(bucket.start()) + " - Count: " + bucket.count() + " / Min: " + bucket.min()
+                                + " / Max: " + bucket.max() + " / Mean: " + String.format("%.2f", bucket.mean()));
+                }
+                return;
+            }
+            float threshold = parseFloatInput(last, Float.NaN);
+
+            for (RT0013.BIN_SENSOR_TYPES sensorType : sensors) {
+                StoreQuery.Result result = StoreQuery.aggregate(store, args[1], sensorType, from, to, threshold);
+                System.out.println(spacer + args[1] + " " + sensorType);
+                if (result.count() == 0) {
+                    System.out.println("Nothing to display!");
+                    continue;
+                }
+                System.out.println("Range: " + formatEpoch(result.firstEpoch()) + " - " + formatEpoch(result.lastEpoch()));
+                System.out.println("Count: " + result.count());
+                System.out.println("Min: " + result.min() + " / Max: " + result.max() + " / Mean: " + String.format("%.2f", result.mean()));
+                if (!Float.isNaN(threshold))
+                    System.out.println("Minutes above " + threshold + ": " + result.secondsAbove() / 60);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Query failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Range query on a columnar archive file (see RT0013manager.archiveLogData()).
+     *
+     * @param args Subcommand arguments, first entry is "query", second the archive file
+     */
+    private void runArchiveQuery(String[] args) {
+        long from = parseEpochInput((args.length > 2) ? args[2] : null, Long.MIN_VALUE);
+        long to = parseEpochInput((args.length > 3) ? args[3] : null, Long.MAX_VALUE);
+        try (ColumnarArchive archive = new ColumnarArchive(Path.of(args[1]))) {
+            System.out.println(spacer + archive.getTagID() + " " + archive.getSensor());
+            float[] range = {Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+            int count = archive.scan(from, to, (epochSeconds, fixedPoint) -> {
+                if (fixedPoint == RT0013decoder.EMPTY_MARKER)
+                    return;
+                float value = fixedpointToFloat(archive.getSensor(), fixedPoint);
+                range[0] = Math.min(range[0], value);
+                range[1] = Math.max(range[1], value);
+            });
+            if (count == 0) {
+                System.out.println("Nothing to display!");
+                return;
+            }
+            int first = archive.indexOf(from);
+            System.out.println("Range: " + formatEpoch(archive.getTimestamp(first)) + " - " + formatEpoch(archive.getTimestamp(first + count - 1)));
+            System.out.println("Count: " + count);
+            System.out.println("Min: " + range[0] + " / Max: " + range[1]);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Query failed: " + e.getMessage());
+        }
+    }
+
+    private static String formatEpoch(long epochSeconds) {
+        return formatTimestamp(LocalDateTime.ofEpochSecond(epochSeconds, 0, ZoneOffset.UTC));
+    }
+
+    private static String formatEpochMillis(long epochMillis) {
+        return formatTimestamp(LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault()));
+    }
+
     /**
      * This function loops through the process of finding a tag.
      */
@@ -164,7 +469,7 @@ public class RFIDTagConsoleApp {
                 }
             }
             System.out.println("DO NOT MOVE THE TAG(S) NOW! Searching for tags...");
-            myTags = myRT0013.myRT0013rain.doInventory();
+            myTags = myRT0013.doInventory();
         }
         cliState = CliStates.CHOOSE;
     }
@@ -187,7 +492,8 @@ public class RFIDTagConsoleApp {
             chosenTag = 0;
         if (chosenTag < myTags.length && chosenTag >= 0) {
             System.out.println("Locked onto ID: " + bytesToHexstring(myTags[chosenTag].GetId()));
-            myRT0013.myRT0013rain.setTag(myTags[chosenTag]);
+            myRT0013.bufferLockOn(myTags[chosenTag]);
+            System.out.println("Register cache: " + myRT0013.getBufferStats());
             cliState = CliStates.MENU1;
         } else {
             System.out.println("Error: Chosen Tagnumber is not valid!");
@@ -201,6 +507,7 @@ public class RFIDTagConsoleApp {
     private void init_resetTagRegister() {
         System.out.println("Resetting PC progRAM safely and closing resources...");
         myTags = null;
+        myRT0013.bufferClose();
         myRT0013.myRT0013rain.closeResources();
         myRT0013 = null;
         scanner.close();
@@ -265,8 +572,9 @@ public class RFIDTagConsoleApp {
      * Function loads all available registers of tag.
      */
     private void menu1_1_performRAMCOPY() {
-        System.out.println(spacer + "Fetching registers... (Takes a minute!)");
-        myRT0013.bufferFetchRegisters();
+        System.out.println(spacer + "Fetching registers...");
+        myRT0013.bufferFetchValueFirst(true); // only log words written since the last visit
+        myRT0013.bufferEnsureRegion(RT0013region.DATES);
     }
 
     /**
@@ -297,6 +605,7 @@ public class RFIDTagConsoleApp {
         System.out.println("\t" + myRT0013.getTagID(true));
         for (RT0013.REV_TYPES revType : RT0013.REV_TYPES.values())
             System.out.println("\t" + myRT0013.getTagXRev(revType, true));
+        myRT0013.bufferRefreshStatus();
         System.out.println("\t" + myRT0013.getBATStatus(true));
         for (RT0013.BITS_STATUS bit : RT0013.BITS_STATUS.values())
             System.out.println("\t" + myRT0013.getTagStatus(bit, true));
@@ -345,7 +654,7 @@ public class RFIDTagConsoleApp {
             myRT0013.configureBins(null, sensor);
         }
         myRT0013.setUserArea("", false);
-        myRT0013.bufferReset();
+        myRT0013.bufferInvalidateVolatile();
 
         System.out.println("Reset done!");
     }
@@ -376,7 +685,7 @@ public class RFIDTagConsoleApp {
             myRT0013.setTagControl(RT0013.BITS_CTRL.DE, true);
         menu1_1_3_1_performETAEdit();
         menu1_1_3_1_performUserAreaEdit();
-        myRT0013.bufferReset();
+        myRT0013.bufferInvalidateVolatile();
 
         System.out.println("Guided configuration complete! Proceed to next menu option to activate the tag!");
     }
@@ -414,7 +723,7 @@ public class RFIDTagConsoleApp {
                 System.out.println("Tag sucessfully enabled!");
             else
                 System.out.println("Tag enable failed!");
-            myRT0013.bufferReset();
+            myRT0013.bufferInvalidateVolatile();
         }
     }
 
@@ -431,6 +740,7 @@ public class RFIDTagConsoleApp {
         output.append(myRT0013.getTagID(true)).append("\n");
         for (RT0013.REV_TYPES revType : RT0013.REV_TYPES.values())
             output.append(myRT0013.getTagXRev(revType, true)).append("\n");
+        myRT0013.bufferRefreshStatus();
         output.append(myRT0013.getBATStatus(true)).append("\n");
         for (RT0013.BITS_STATUS bitStatus : RT0013.BITS_STATUS.values())
             output.append(myRT0013.getTagStatus(bitStatus, true)).append("\n");
@@ -520,7 +830,7 @@ public class RFIDTagConsoleApp {
             }
             if (parseBooleanInput(promptAndGetInput(scanner, continueQuestion), false)) {
                 myRT0013.setTagControl(bit, parseBooleanInput(promptAndGetInput(scanner, "Enter bit value (0): ").toLowerCase(), false));
-                myRT0013.bufferReset();
+                myRT0013.bufferInvalidateVolatile();
             }
         }
     }
@@ -533,7 +843,7 @@ public class RFIDTagConsoleApp {
         System.out.println("In the following you could change the SAMPLING DELAY.\nThis register defines the delay (in seconds, 0...65535) of the first acquisition after the start of the logging activity.");
         if (parseBooleanInput(promptAndGetInput(scanner, continueQuestion), false)) {
             myRT0013.setSamplingDelay(parseShortInput(promptAndGetInput(scanner, "Enter value (0) in sec: ").toLowerCase(), (short) 0), true);
-            myRT0013.bufferReset();
+            myRT0013.bufferInvalidateVolatile();
         }
     }
 
@@ -545,7 +855,7 @@ public class RFIDTagConsoleApp {
         System.out.println("In the following you could change the INIT DATE.\nThe Init Date register is used to keep track of time and it is expressed in Unix time format. Default register’s value is 0 that corresponds to midnight (UTC) January, 1 1970.");
         if (parseBooleanInput(promptAndGetInput(scanner, continueQuestion), false)) {
             myRT0013.setINITDate(promptAndParseDateTime(scanner));
-            myRT0013.bufferReset();
+            myRT0013.bufferInvalidateVolatile();
         }
     }
 
@@ -557,7 +867,7 @@ public class RFIDTagConsoleApp {
         System.out.println("In the following you could change the ETA, entering seconds (Say No for entering a date!).\nThis register (in seconds, 0...2^32) defines the maximum time, computed from shipping date, required to arrive at destination. If the logging is not stopped before the ETA is reached an alarm is generated. If the value of this register is 0 the ETA alarm feature is disabled.");
         if (parseBooleanInput(promptAndGetInput(scanner, continueQuestion), false)) {
             myRT0013.setETA(parseIntInput(promptAndGetInput(scanner, "Enter value (0) in sec: ").toLowerCase(), 0));
-            myRT0013.bufferReset();
+            myRT0013.bufferInvalidateVolatile();
         }
         else if (parseBooleanInput(promptAndGetInput(scanner, "You also could type in a date!\n" + continueQuestion), false)) {
             Date start = myRT0013.getINITDate();
@@ -566,7 +876,7 @@ public class RFIDTagConsoleApp {
             System.out.println("The calculated time difference is: " + diffSec + " seconds. You could write this value now.");
             if (parseBooleanInput(promptAndGetInput(scanner, continueQuestion), false)) {
                 myRT0013.setETA((int) diffSec);
-                myRT0013.bufferReset();
+                myRT0013.bufferInvalidateVolatile();
             }
         }
     }
@@ -625,7 +935,7 @@ public class RFIDTagConsoleApp {
                         enType,
                         sensorType,
                         (enType == RT0013.BIN_EN_TYPES.COUNTER || enType == RT0013.BIN_EN_TYPES.SAMPLE_STORE) && chosenNumber == 0);
-                myRT0013.bufferReset();
+                myRT0013.bufferInvalidateVolatile();
             }
         }
     }
@@ -669,7 +979,7 @@ public class RFIDTagConsoleApp {
                         sensorType,
                         parseFloatInput(promptAndGetInput(scanner, "Enter float value (0): ").toLowerCase(), (chosenNumber == 0) ? newValueF : 0f)
                 );
-                myRT0013.bufferReset();
+                myRT0013.bufferInvalidateVolatile();
             }
         }
     }
@@ -707,7 +1017,7 @@ public class RFIDTagConsoleApp {
                     return;
                 }
                 myRT0013.setBinOptionSAMPLETIME(chosenNumber, sensorType, parseShortInput(promptAndGetInput(scanner, "Enter value (0) in sec: ").toLowerCase(), (short) 0), true);
-                myRT0013.bufferReset();
+                myRT0013.bufferInvalidateVolatile();
             }
         }
     }
@@ -745,7 +1055,7 @@ public class RFIDTagConsoleApp {
                     return;
                 }
                 myRT0013.setBinOptionTHRESHOLD(chosenNumber, sensorType, parseShortInput(promptAndGetInput(scanner, "Enter allowed counts till alarm (<unlimited>): ").toLowerCase(), (short) 0xFFFF));
-                myRT0013.bufferReset();
+                myRT0013.bufferInvalidateVolatile();
             }
         }
     }
@@ -770,6 +1080,9 @@ public class RFIDTagConsoleApp {
             case "1" -> menu1_1_4_performListAllData();
             case "2" -> menu1_1_4_performListRecentData();
             case "3" -> menu1_1_4_performExportData();
+            case "4" -> menu1_1_4_performArchiveData();
+            case "5" -> menu1_1_4_performAuditBins();
+            case "6" -> menu1_1_4_performArchiveFiles();
             case "x" -> cliState = CliStates.EXIT;
             default -> System.out.println("Invalid option, please try again.");
         }
@@ -793,10 +1106,18 @@ public class RFIDTagConsoleApp {
         System.out.println(spacer + "You are about display most recent Log data! This will take a minute!");
         if (!parseBooleanInput(promptAndGetInput(scanner, continueQuestion), false))
             return;
+        short overview = parseShortInput(promptAndGetInput(scanner,
+                "Overview of whole log with how many points (LTTB)? 0 shows the most recent 10 rows.\nPoints (0): ").trim(), (short) 0);
 
         menu1_1_performRAMCOPY();
+        Map<RT0013.BIN_SENSOR_TYPES, List<measurmentPoint>> dataTables = RT0013decoder.parseLogData(
+                Map.of(myRT0013.getTagID(false), myRT0013.getRegisterImage())
+        ).get(myRT0013.getTagID(false));
         for (RT0013.BIN_SENSOR_TYPES sensorType : RT0013.BIN_SENSOR_TYPES.values()) {
-            String output = displayDataTable(myRT0013.parseLogData(sensorType), sensorType, (short) 10);
+            List<measurmentPoint> dataTable = dataTables.get(sensorType);
+            if (overview > 0)
+                dataTable = LttbWriter.downsample(dataTable, sensorType, overview);
+            String output = displayDataTable(dataTable, sensorType, (overview > 0) ? overview : (short) 10);
             System.out.println(spacer + ((output != null) ? output : "Nothing to display!"));
         }
     }
@@ -808,13 +1129,87 @@ public class RFIDTagConsoleApp {
         if (!parseBooleanInput(promptAndGetInput(scanner, continueQuestion), false))
             return;
 
+        ExportFormat format = ExportFormats.byName(promptAndGetInput(scanner, "Choose format " + ExportFormats.available().keySet() + " (csv): "));
+        if (format == null)
+            format = ExportFormats.CSV;
+        ExportOptions options = ExportOptions.DEFAULT.withGzip(
+                parseBooleanInput(promptAndGetInput(scanner, "Compress files with gzip? Y(es) or N(o)/<any>\nAnswer (N): "), false));
+        options = options.withMaxRows(parseIntInput(promptAndGetInput(scanner,
+                "Downsample to how many rows per file (LTTB)? 0 keeps all rows.\nRows (0): ").trim(), 0));
+
         menu1_1_performRAMCOPY();
-        for (RT0013.BIN_SENSOR_TYPES sensorType : RT0013.BIN_SENSOR_TYPES.values())
-            exportDataToCSV(
-                    myRT0013.getTagID(false) + "_" + sensorType.toString() + "_data",
-                    myRT0013.parseLogData(sensorType),
-                    sensorType
-            );
+        RT0013decoder.exportLogData(Map.of(myRT0013.getTagID(false), myRT0013.getRegisterImage()), format, options);
+    }
+    /**
+     * Merging all interpreted data into the local measurement store.
+     */
+    private void menu1_1_4_performArchiveData() {
+        System.out.println(spacer + "You are about to archive data to " + MeasurementStore.DEFAULT_ROOT.toAbsolutePath() + "!");
+        if (!parseBooleanInput(promptAndGetInput(scanner, continueQuestion), false))
+            return;
+
+        menu1_1_performRAMCOPY();
+        String tagID = myRT0013.getTagID(false);
+        short[] image = myRT0013.getRegisterImage();
+        try {
+            MeasurementStore store = openStore();
+            for (RT0013.BIN_SENSOR_TYPES sensorType : RT0013.BIN_SENSOR_TYPES.values()) {
+                MeasurementStore.Ingest ingest = store.ingest(tagID, sensorType);
+                try (ingest) {
+                    RT0013decoder.streamLogData(sensorType, image, ingest::writeRow);
+                }
+                System.out.println(sensorType + ": " + ingest.getAppended() + " new of " + ingest.getRows() + " points, "
+                        + store.size(tagID, sensorType) + " stored.");
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Archiving failed: " + e.getMessage());
+        }
+    }
+    /**
+     * Writing all interpreted data to one columnar archive file per sensor.
+     */
+    private void menu1_1_4_performArchiveFiles() {
+        System.out.println(spacer + "You are about to write archive files!");
+        if (!parseBooleanInput(promptAndGetInput(scanner, continueQuestion), false))
+            return;
+
+        menu1_1_performRAMCOPY();
+        String tagID = myRT0013.getTagID(false);
+        for (RT0013.BIN_SENSOR_TYPES sensorType : RT0013.BIN_SENSOR_TYPES.values()) {
+            Path file = Path.of(tagID + "_" + sensorType + "_data.rtca");
+            try {
+                System.out.println(sensorType + ": " + myRT0013.archiveLogData(sensorType, file) + " points written to " + file.toAbsolutePath());
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Archiving " + sensorType + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Comparing the bin counters of the tag with the bins recomputed from all stored samples.
+     */
+    private void menu1_1_4_performAuditBins() {
+        System.out.println(spacer + "You are about to audit bin counters against " + MeasurementStore.DEFAULT_ROOT.toAbsolutePath() + "!");
+        if (!parseBooleanInput(promptAndGetInput(scanner, continueQuestion), false))
+            return;
+
+        menu1_1_performRAMCOPY();
+        String tagID = myRT0013.getTagID(false);
+        try {
+            MeasurementStore store = openStore();
+            for (RT0013.BIN_SENSOR_TYPES sensorType : RT0013.BIN_SENSOR_TYPES.values()) {
+                StoreQuery.Result result = StoreQuery.aggregate(store, tagID, sensorType, Long.MIN_VALUE, Long.MAX_VALUE,
+                        Float.POSITIVE_INFINITY, myRT0013.retrieveBinsConfiguration(sensorType));
+                System.out.println(spacer + sensorType + " (" + result.count() + " stored samples)");
+                for (short binNum = 0; binNum < result.binCounts().length; binNum++) {
+                    short counter = myRT0013.getBinCounter(binNum, sensorType);
+                    System.out.println("\t#" + binNum + " - tag: " + counter + " / store: " + result.binCounts()[binNum]
+                            + ((counter == result.binCounts()[binNum]) ? "" : " MISMATCH"));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Audit failed: " + e.getMessage());
+        }
     }
 }
 
@@ -0,0 +1,220 @@
+package com.fhstp.it231503.caen.event;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Flow publisher with a bounded buffer per subscriber. publish() never blocks: a subscriber that falls behind
+ * loses items according to its OverflowPolicy instead of slowing down the producer (e.g. the RF loop).
+ * Each subscriber is signalled serially on its own virtual thread, honouring its requested demand.
+ *
+ * @param <T> Type of item
+ * @author Emil Sedlacek / it231503
+ * @implNote Thread-safe
+ */
+public class BoundedPublisher<T> implements Flow.Publisher<T>, AutoCloseable {
+    private static final Executor SIGNALS = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final List<BoundedSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * @param capacity Default buffer size per subscriber
+     * @param policy   Default overflow policy
+     * @throws IllegalArgumentException If capacity is not positive.
+     */
+    public BoundedPublisher(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive");
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        subscribe(subscriber, capacity, policy);
+    }
+
+    /**
+     * Subscribes with an own buffer size and policy.
+     *
+     * @param subscriber Subscriber
+     * @param capacity   Buffer size
+     * @param policy     Overflow policy
+     * @throws IllegalArgumentException If capacity is not positive.
+     */
+    public void subscribe(Flow.Subscriber<? super T> subscriber, int capacity, OverflowPolicy policy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive");
+        BoundedSubscription subscription = new BoundedSubscription(subscriber, capacity, policy);
+        if (closed)
+            subscription.complete();
+        else
+            subscriptions.add(subscription);
+        subscription.signal();
+    }
+
+    /**
+     * Offers an item to all subscribers without waiting.
+     *
+     * @param item Item
+     */
+    public void publish(T item) {
+        for (BoundedSubscription subscription : subscriptions)
+            subscription.offer(item);
+    }
+
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * @return Count of items dropped over all subscribers
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Completes all subscribers once their buffers are drained.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (BoundedSubscription subscription : subscriptions) {
+            subscription.complete();
+            subscription.signal();
+        }
+        subscriptions.clear();
+    }
+
+    private final class BoundedSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final ArrayDeque<T> buffer = new ArrayDeque<>();
+        private final int capacity;
+        private final OverflowPolicy policy;
+        private final AtomicInteger pending = new AtomicInteger();
+        private long demand;
+        private boolean subscribed;
+        private boolean completed;
+        private boolean terminated;
+        private Throwable error;
+
+        private BoundedSubscription(Flow.Subscriber<? super T> subscriber, int capacity, OverflowPolicy policy) {
+            this.subscriber = subscriber;
+            this.capacity = capacity;
+            this.policy = policy;
+        }
+
+        private void offer(T item) {
+            synchronized (this) {
+                if (terminated || completed)
+                    return;
+                if (policy == OverflowPolicy.LATEST) {
+                    dropped.add(buffer.size());
+                    buffer.clear();
+                } else if (buffer.size() >= capacity) {
+                    dropped.increment();
+                    if (policy == OverflowPolicy.DROP_NEWEST)
+                        return;
+                    buffer.poll();
+                }
+                buffer.add(item);
+            }
+            signal();
+        }
+
+        private synchronized void complete() {
+            completed = true;
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n <= 0)
+                    error = new IllegalArgumentException("Non-positive request: " + n); // rule 3.9
+                else
+                    demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                terminated = true;
+                buffer.clear();
+            }
+            subscriptions.remove(this);
+        }
+
+        private void signal() {
+            if (pending.getAndIncrement() == 0)
+                SIGNALS.execute(this);
+        }
+
+        /**
+         * Delivers serially; a signal arriving meanwhile makes the loop run again instead of starting a second thread.
+         */
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (!subscribed) {
+                subscribed = true;
+                subscriber.onSubscribe(this);
+            }
+            while (true) {
+                T item = null;
+                boolean finish = false;
+                Throwable failure;
+                synchronized (this) {
+                    if (terminated)
+                        return;
+                    failure = error;
+                    if (failure != null)
+                        terminated = true;
+                    else if (demand > 0 && !buffer.isEmpty()) {
+                        item = buffer.poll();
+                        demand--;
+                    } else if (completed && buffer.isEmpty()) {
+                        terminated = true;
+                        finish = true;
+                    }
+                }
+                if (failure != null) {
+                    subscriptions.remove(this);
+                    subscriber.onError(failure);
+                    return;
+                }
+                if (finish) {
+                    subscriber.onComplete();
+                    return;
+                }
+                if (item == null)
+                    return;
+                try {
+                    subscriber.onNext(item);
+                } catch (Throwable t) { // rule 2.13: treat as cancelled
+                    cancel();
+                    return;
+                }
+            }
+        }
+    }
+}
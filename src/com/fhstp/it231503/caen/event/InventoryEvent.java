@@ -0,0 +1,17 @@
+package com.fhstp.it231503.caen.event;
+
+/**
+ * A tag entering or leaving the reader field.
+ *
+ * @param kind        Arrival or departure
+ * @param tagID       Tag ID as hex string
+ * @param epochMillis Time of detection
+ * @param presence    Presence at detection, on departure the one of the last sighting
+ * @author Emil Sedlacek / it231503
+ */
+public record InventoryEvent(Kind kind, String tagID, long epochMillis, TagPresence presence) {
+    public enum Kind {
+        ARRIVED,
+        DEPARTED
+    }
+}
@@ -0,0 +1,15 @@
+package com.fhstp.it231503.caen.event;
+
+import com.fhstp.it231503.caen.rfid.RT0013;
+
+/**
+ * One decoded log row, published once per tag and sensor (see RT0013manager.syncLog() and RT0013pipeline).
+ *
+ * @param tagID        Tag ID as hex string
+ * @param sensor       Type of Sensor
+ * @param epochSeconds Timestamp in seconds (UTC) or LogSink.NO_TIME
+ * @param fixedPoint   Raw register value or EMPTY_MARKER
+ * @author Emil Sedlacek / it231503
+ */
+public record MeasurementEvent(String tagID, RT0013.BIN_SENSOR_TYPES sensor, long epochSeconds, short fixedPoint) {
+}
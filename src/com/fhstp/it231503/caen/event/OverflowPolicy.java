@@ -0,0 +1,21 @@
+package com.fhstp.it231503.caen.event;
+
+/**
+ * What a subscriber's full buffer does with another item. The producer never waits.
+ *
+ * @author Emil Sedlacek / it231503
+ */
+public enum OverflowPolicy {
+    /**
+     * Keep the buffer, drop the incoming item.
+     */
+    DROP_NEWEST,
+    /**
+     * Drop the oldest buffered item to make room.
+     */
+    DROP_OLDEST,
+    /**
+     * Keep only the most recent item, regardless of capacity (state-like events, e.g. alarm evaluation).
+     */
+    LATEST
+}
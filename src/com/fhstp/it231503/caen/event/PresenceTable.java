@@ -0,0 +1,129 @@
+package com.fhstp.it231503.caen.event;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tags currently in the reader field, keyed by tag ID. A tag departs once it was not seen for a given time.
+ * Departed tags teach the table how long tags stay and how weak they get before leaving, to estimate when the
+ * present ones will leave (see expectedDeparture()).
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Thread-safe. Readers never block the inventory loop updating it.
+ */
+public class PresenceTable {
+    /**
+     * Weight of the latest departure in the learned dwell time and departure RSSI.
+     */
+    private static final double HISTORY_WEIGHT = 0.2;
+
+    private final Map<String, TagPresence> present = new ConcurrentHashMap<>();
+    private double meanDwell = Double.NaN;
+    private double departureRssi = Double.NaN;
+
+    /**
+     * Function to record a sighting.
+     *
+     * @param tagID       Tag ID as hex string
+     * @param rssi        RSSI of sighting, null if not reported
+     * @param epochMillis Time of sighting
+     * @return Presence before the sighting, null if the tag just arrived
+     */
+    public TagPresence sighted(String tagID, Short rssi, long epochMillis) {
+        TagPresence[] before = new TagPresence[1];
+        present.compute(tagID, (id, presence) -> {
+            before[0] = presence;
+            return (presence == null) ? new TagPresence(id, epochMillis, epochMillis, 1, rssi, Float.NaN) : presence.sighted(epochMillis, rssi);
+        });
+        return before[0];
+    }
+
+    /**
+     * Function to remove tags not seen since the cutoff.
+     *
+     * @param cutoffMillis Tags last seen before this time depart
+     * @return Departed tags
+     */
+    public List<TagPresence> expire(long cutoffMillis) {
+        List<TagPresence> departed = new ArrayList<>();
+        for (TagPresence presence : present.values())
+            if (presence.lastSeen() < cutoffMillis && present.remove(presence.tagID(), presence)) {
+                departed.add(presence);
+                learn(presence);
+            }
+        return departed;
+    }
+
+    private synchronized void learn(TagPresence departed) {
+        if (departed.reads() < 2)
+            return; // seen once, says nothing about the dwell
+        meanDwell = Double.isNaN(meanDwell) ? departed.dwellMillis() : meanDwell + HISTORY_WEIGHT * (departed.dwellMillis() - meanDwell);
+        if (departed.rssi() != null)
+            departureRssi = Double.isNaN(departureRssi) ? departed.rssi() : departureRssi + HISTORY_WEIGHT * (departed.rssi() - departureRssi);
+    }
+
+    /**
+     * @return Learned time tags stay in field in milliseconds, NaN before the first departure
+     */
+    public synchronized double getMeanDwellMillis() {
+        return meanDwell;
+    }
+
+    /**
+     * @return Learned RSSI of the last sighting before departure, NaN before the first departure with RSSI
+     */
+    public synchronized double getDepartureRssi() {
+        return departureRssi;
+    }
+
+    /**
+     * Function to estimate when a tag will leave the field. The earlier of two guesses counts: arrival plus the learned
+     * dwell time, and for a fading tag the time its RSSI trend reaches the learned departure RSSI.
+     *
+     * @param presence Presence of tag
+     * @return Expected departure in epoch milliseconds, Long.MAX_VALUE if nothing is known yet
+     */
+    public synchronized long expectedDeparture(TagPresence presence) {
+        long expected = Long.MAX_VALUE;
+        if (!Double.isNaN(meanDwell))
+            expected = presence.firstSeen() + (long) meanDwell;
+        if (presence.rssi() != null && presence.rssiTrend() < 0 && !Double.isNaN(departureRssi)) {
+            double seconds = Math.max(0, (presence.rssi() - departureRssi) / -presence.rssiTrend());
+            expected = Math.min(expected, presence.lastSeen() + (long) (seconds * 1000));
+        }
+        return expected;
+    }
+
+    /**
+     * @param tagID Tag ID as hex string
+     * @return Presence of said tag, null if not in field
+     */
+    public TagPresence get(String tagID) {
+        return present.get(tagID);
+    }
+
+    /**
+     * @return Tags in field, longest present first
+     */
+    public List<TagPresence> present() {
+        List<TagPresence> list = new ArrayList<>(present.values());
+        list.sort(Comparator.comparingLong(TagPresence::firstSeen));
+        return list;
+    }
+
+    public int size() {
+        return present.size();
+    }
+
+    /**
+     * Forgets present tags and history.
+     */
+    public synchronized void clear() {
+        present.clear();
+        meanDwell = Double.NaN;
+        departureRssi = Double.NaN;
+    }
+}
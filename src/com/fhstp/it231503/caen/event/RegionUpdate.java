@@ -0,0 +1,14 @@
+package com.fhstp.it231503.caen.event;
+
+import com.fhstp.it231503.caen.rfid.RT0013region;
+
+/**
+ * Words of a register region were read from or written to a tag and are now buffered.
+ *
+ * @param tagID       Tag ID as hex string
+ * @param region      Updated region
+ * @param epochMillis Time of update
+ * @author Emil Sedlacek / it231503
+ */
+public record RegionUpdate(String tagID, RT0013region region, long epochMillis) {
+}
@@ -0,0 +1,74 @@
+package com.fhstp.it231503.caen.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Publishers of everything RT0013manager learns about tags: inventory changes, buffered register regions and
+ * decoded measurements. Subscribers never slow down the producers, see BoundedPublisher.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Thread-safe
+ */
+public class TagEvents implements AutoCloseable {
+    private final BoundedPublisher<InventoryEvent> inventory = new BoundedPublisher<>(256, OverflowPolicy.DROP_OLDEST);
+    private final BoundedPublisher<RegionUpdate> regions = new BoundedPublisher<>(64, OverflowPolicy.DROP_OLDEST);
+    private final BoundedPublisher<MeasurementEvent> measurements = new BoundedPublisher<>(4096, OverflowPolicy.DROP_OLDEST);
+    private final PresenceTable presence = new PresenceTable();
+
+    /**
+     * @return Tags arriving and departing between inventory rounds (default: 256 buffered, oldest dropped)
+     */
+    public BoundedPublisher<InventoryEvent> inventory() {
+        return inventory;
+    }
+
+    /**
+     * @return Buffered register regions (default: 64 buffered, oldest dropped)
+     */
+    public BoundedPublisher<RegionUpdate> regions() {
+        return regions;
+    }
+
+    /**
+     * @return Decoded measurements of log syncs (default: 4096 buffered, oldest dropped)
+     */
+    public BoundedPublisher<MeasurementEvent> measurements() {
+        return measurements;
+    }
+
+    /**
+     * @return Tags currently in the reader field
+     */
+    public PresenceTable presence() {
+        return presence;
+    }
+
+    /**
+     * Records an inventory round and publishes arrivals and departures.
+     *
+     * @param seen        Tag IDs seen in this round, mapped to their RSSI (null if not reported)
+     * @param epochMillis Time of round
+     * @param departAfter Milliseconds a tag may go unseen before it departs, 0 for departing as soon as a round misses it
+     * @return Departed tag IDs
+     */
+    public synchronized List<String> inventoryRound(Map<String, Short> seen, long epochMillis, long departAfter) {
+        for (Map.Entry<String, Short> sighting : seen.entrySet())
+            if (presence.sighted(sighting.getKey(), sighting.getValue(), epochMillis) == null)
+                inventory.publish(new InventoryEvent(InventoryEvent.Kind.ARRIVED, sighting.getKey(), epochMillis, presence.get(sighting.getKey())));
+        List<String> departed = new ArrayList<>();
+        for (TagPresence left : presence.expire(epochMillis - departAfter)) {
+            departed.add(left.tagID());
+            inventory.publish(new InventoryEvent(InventoryEvent.Kind.DEPARTED, left.tagID(), epochMillis, left));
+        }
+        return departed;
+    }
+
+    @Override
+    public void close() {
+        inventory.close();
+        regions.close();
+        measurements.close();
+    }
+}
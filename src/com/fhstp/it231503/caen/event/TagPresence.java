@@ -0,0 +1,42 @@
+package com.fhstp.it231503.caen.event;
+
+/**
+ * Presence of a tag in the reader field as seen by inventory rounds.
+ *
+ * @param tagID     Tag ID as hex string
+ * @param firstSeen Time of arrival in epoch milliseconds
+ * @param lastSeen  Time of the latest sighting in epoch milliseconds
+ * @param reads     Count of rounds the tag was seen in
+ * @param rssi      RSSI of the latest sighting as reported by the reader, null if not reported
+ * @param rssiTrend Smoothed change of RSSI per second, negative while the tag moves away, NaN until known
+ * @author Emil Sedlacek / it231503
+ */
+public record TagPresence(String tagID, long firstSeen, long lastSeen, long reads, Short rssi, float rssiTrend) {
+    /**
+     * Weight of the latest RSSI change in the trend.
+     */
+    private static final float TREND_WEIGHT = 0.3f;
+
+    /**
+     * @return Time between arrival and latest sighting in milliseconds
+     */
+    public long dwellMillis() {
+        return lastSeen - firstSeen;
+    }
+
+    /**
+     * Function to merge a further sighting.
+     *
+     * @param epochMillis Time of sighting
+     * @param rssi        RSSI of sighting, null if not reported
+     * @return Updated presence
+     */
+    public TagPresence sighted(long epochMillis, Short rssi) {
+        float trend = rssiTrend;
+        if (rssi != null && this.rssi != null && epochMillis > lastSeen) {
+            float change = (rssi - this.rssi) * 1000f / (epochMillis - lastSeen);
+            trend = Float.isNaN(trend) ? change : trend + TREND_WEIGHT * (change - trend);
+        }
+        return new TagPresence(tagID, firstSeen, epochMillis, reads + 1, (rssi != null) ? rssi : this.rssi, trend);
+    }
+}
@@ -0,0 +1,110 @@
+package com.fhstp.it231503.caen.export;
+
+import com.fhstp.it231503.caen.rfid.RT0013;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Sequential reader of the compact binary record format, plain or gzip compressed.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Not thread-safe.
+ * @see BinaryRecordWriter
+ */
+public class BinaryRecordReader implements Closeable {
+    private final InputStream in;
+    private final String tagID;
+    private final RT0013.BIN_SENSOR_TYPES sensor;
+    private final ByteBuffer record = ByteBuffer.allocate(BinaryRecordWriter.RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private long epochSeconds;
+    private short fixedPoint;
+
+    /**
+     * Opens a file and reads its header.
+     *
+     * @param file Binary record file (".rt13" or ".rt13.gz")
+     * @throws IOException If the file cannot be read or is no binary record file.
+     */
+    public BinaryRecordReader(Path file) throws IOException {
+        InputStream raw = new BufferedInputStream(Files.newInputStream(file), StreamWriterBase.BUFFER_SIZE);
+        raw.mark(2);
+        boolean gzip = raw.read() == 0x1F && raw.read() == 0x8B;
+        raw.reset();
+        this.in = gzip ? new BufferedInputStream(new GZIPInputStream(raw), StreamWriterBase.BUFFER_SIZE) : raw;
+
+        try {
+            byte[] head = in.readNBytes(8);
+            if (head.length < 8 || !Arrays.equals(head, 0, 4, BinaryRecordWriter.MAGIC, 0, 4))
+                throw new IOException("Not a binary record file: " + file);
+            ByteBuffer header = ByteBuffer.wrap(head, 4, 4).order(ByteOrder.LITTLE_ENDIAN);
+            byte version = header.get();
+            if (version != BinaryRecordWriter.VERSION)
+                throw new IOException("Unsupported version " + version + ": " + file);
+            int sensorIndex = header.get();
+            if (sensorIndex < 0 || sensorIndex >= RT0013.BIN_SENSOR_TYPES.values().length)
+                throw new IOException("Unknown sensor " + sensorIndex + ": " + file);
+            this.sensor = RT0013.BIN_SENSOR_TYPES.values()[sensorIndex];
+            int idLength = Short.toUnsignedInt(header.getShort());
+            byte[] id = in.readNBytes(idLength);
+            if (id.length != idLength)
+                throw new EOFException("Truncated header: " + file);
+            this.tagID = new String(id, StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    public String getTagID() {
+        return tagID;
+    }
+
+    public RT0013.BIN_SENSOR_TYPES getSensor() {
+        return sensor;
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return False at end of file.
+     * @throws IOException If reading fails or the last record is truncated.
+     */
+    public boolean next() throws IOException {
+        int read = in.readNBytes(record.array(), 0, BinaryRecordWriter.RECORD_BYTES);
+        if (read == 0)
+            return false;
+        if (read != BinaryRecordWriter.RECORD_BYTES)
+            throw new EOFException("Truncated record");
+        record.clear();
+        int time = record.getInt();
+        epochSeconds = (time == BinaryRecordWriter.NO_TIME_RECORD) ? MeasurementWriter.NO_TIME : Integer.toUnsignedLong(time);
+        fixedPoint = record.getShort();
+        return true;
+    }
+
+    /**
+     * @return Timestamp of current record in seconds (UTC) or MeasurementWriter.NO_TIME
+     */
+    public long getEpochSeconds() {
+        return epochSeconds;
+    }
+
+    /**
+     * @return Raw value of current record or MeasurementWriter.NO_VALUE
+     */
+    public short getFixedPoint() {
+        return fixedPoint;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,79 @@
+package com.fhstp.it231503.caen.export;
+
+import com.fhstp.it231503.caen.rfid.RT0013;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Streaming writer of the compact binary record format. All numbers little-endian.
+ * <pre>
+ * Header:  "RT13" | u8 version (1) | u8 sensor (0=TEMPERATURE, 1=HUMIDITY) | u16 n | n bytes tag ID (ASCII hex)
+ * Record:  u32 epoch seconds (0xFFFFFFFF = none) | s16 raw RT0013 fixed-point value (0xFFFF = none)
+ * </pre>
+ * Records follow the header until end of file, 6 bytes each.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Not thread-safe.
+ * @see BinaryRecordReader
+ */
+public final class BinaryRecordWriter extends StreamWriterBase {
+    static final byte[] MAGIC = {'R', 'T', '1', '3'};
+    static final byte VERSION = 1;
+    static final int RECORD_BYTES = 6;
+    static final int NO_TIME_RECORD = 0xFFFFFFFF;
+
+    private final RT0013.BIN_SENSOR_TYPES sensor;
+
+    /**
+     * Opens (and truncates) a binary record file and writes the header.
+     *
+     * @param file    Target file
+     * @param tagID   Tag ID as hex string
+     * @param sensor  Type of Sensor
+     * @param options Compression setting
+     * @throws IOException              If the file cannot be opened.
+     * @throws IllegalArgumentException When wrong sensor is given or tag ID is too long.
+     */
+    public BinaryRecordWriter(Path file, String tagID, RT0013.BIN_SENSOR_TYPES sensor, ExportOptions options) throws IOException {
+        super(file, checked(sensor, tagID, options).gzip());
+        byte[] id = tagBytes(tagID);
+        this.sensor = sensor;
+
+        bytes.order(ByteOrder.LITTLE_ENDIAN);
+        ensureBytes(MAGIC.length + 4 + id.length);
+        bytes.put(MAGIC).put(VERSION).put((byte) sensor.ordinal()).putShort((short) id.length).put(id);
+    }
+
+    /**
+     * @throws IllegalArgumentException When wrong sensor is given or tag ID is too long.
+     */
+    private static ExportOptions checked(RT0013.BIN_SENSOR_TYPES sensor, String tagID, ExportOptions options) {
+        tagBytes(tagID);
+        return checked(sensor, options);
+    }
+
+    /**
+     * @throws IllegalArgumentException When tag ID is too long.
+     */
+    private static byte[] tagBytes(String tagID) {
+        byte[] id = (tagID == null) ? new byte[0] : tagID.getBytes(StandardCharsets.US_ASCII);
+        if (id.length > 0xFFFF)
+            throw new IllegalArgumentException("Tag ID too long");
+        return id;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the timestamp does not fit u32 (0xFFFFFFFF marks none).
+     */
+    @Override
+    public void writeRow(long epochSeconds, short fixedPoint) throws IOException {
+        if (epochSeconds != NO_TIME && (epochSeconds < 0 || epochSeconds >= Integer.toUnsignedLong(NO_TIME_RECORD)))
+            throw new IllegalArgumentException("Timestamp out of u32 range: " + epochSeconds);
+        ensureBytes(RECORD_BYTES);
+        bytes.putInt((epochSeconds == NO_TIME) ? NO_TIME_RECORD : (int) epochSeconds).putShort(fixedPoint);
+        rows++;
+    }
+}
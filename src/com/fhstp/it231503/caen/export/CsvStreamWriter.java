@@ -0,0 +1,95 @@
+package com.fhstp.it231503.caen.export;
+
+import com.fhstp.it231503.caen.rfid.RT0013;
+import com.fhstp.it231503.caen.util.measurmentPoint;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.DecimalFormatSymbols;
+import java.util.List;
+
+import static com.fhstp.it231503.caen.util.Helper.fixedpointToFloat;
+
+/**
+ * Streaming CSV writer for measurement rows. Writes through a buffered NIO channel with reused buffers,
+ * so memory stays bounded regardless of row count.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Not thread-safe. Timestamps are written as "yyyy-MM-dd HH:mm:ss" in UTC.
+ */
+public class CsvStreamWriter extends TextStreamWriter {
+    /**
+     * Placeholder for missing timestamps or values.
+     */
+    private static final String MISSING = "nan";
+
+    private final RT0013.BIN_SENSOR_TYPES sensor;
+    private final char delimiter;
+    private final char decimalSeparator;
+
+    /**
+     * Opens (and truncates) a CSV file and writes the header.
+     *
+     * @param file    Target file
+     * @param sensor  Type of Sensor, used for header and fixed-point conversion
+     * @param options Delimiter, locale and compression
+     * @throws IOException              If the file cannot be opened.
+     * @throws IllegalArgumentException When wrong sensor is given.
+     */
+    public CsvStreamWriter(Path file, RT0013.BIN_SENSOR_TYPES sensor, ExportOptions options) throws IOException {
+        super(file, checked(sensor, options).gzip());
+        String header = switch (sensor) {
+            case TEMPERATURE -> "Temperature (°C)";
+            case HUMIDITY -> "Humidity (%)";
+            case null, default -> throw new IllegalArgumentException("Wrong sensor given");
+        };
+        this.sensor = sensor;
+        this.delimiter = options.delimiter();
+        this.decimalSeparator = DecimalFormatSymbols.getInstance(options.locale()).getDecimalSeparator();
+
+        chars.append("Timestamp").append(delimiter).append(header).append('\n');
+    }
+
+    @Override
+    public void writeRow(long epochSeconds, short fixedPoint) throws IOException {
+        ensureRowSpace();
+        appendTimestamp(epochSeconds);
+        chars.put(delimiter);
+        if (fixedPoint == NO_VALUE)
+            chars.put(MISSING);
+        else
+            appendValue(fixedpointToFloat(sensor, fixedPoint), decimalSeparator);
+        chars.put('\n');
+        rows++;
+    }
+
+    private void appendTimestamp(long epochSeconds) {
+        if (epochSeconds == NO_TIME)
+            chars.put(MISSING);
+        else
+            appendTimestamp(epochSeconds, ' ');
+    }
+
+    /**
+     * Function to write array of measurmentPoints to a CSV file.
+     *
+     * @param dataTable Sorted and checked array of measurmentPoints.
+     * @param sensor    Type of Sensor
+     * @param fileName  Name of CSV-file, without extension.
+     */
+    public static void exportDataToCSV(String fileName, List<measurmentPoint> dataTable, RT0013.BIN_SENSOR_TYPES sensor) {
+        if (dataTable == null)
+            return;
+
+        fileName += ".csv";
+        try (CsvStreamWriter csvWriter = new CsvStreamWriter(Path.of(fileName), sensor, ExportOptions.DEFAULT)) {
+            for (measurmentPoint point : dataTable)
+                csvWriter.writeRow(point);
+        } catch (IOException e) {
+            System.err.println("An error occurred while writing to the CSV file.");
+            e.printStackTrace();
+            return;
+        }
+        System.out.println("File added: " + fileName);
+    }
+}
@@ -0,0 +1,38 @@
+package com.fhstp.it231503.caen.export;
+
+import com.fhstp.it231503.caen.rfid.RT0013;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Service provider interface for measurement export formats.
+ * Additional formats are found via java.util.ServiceLoader (META-INF/services/com.fhstp.it231503.caen.export.ExportFormat).
+ *
+ * @author Emil Sedlacek / it231503
+ * @see ExportFormats
+ */
+public interface ExportFormat {
+    /**
+     * @return Short unique name, used for lookup (e.g. "csv").
+     */
+    String getName();
+
+    /**
+     * @return File extension including dot, without compression suffix (e.g. ".csv").
+     */
+    String getFileExtension();
+
+    /**
+     * Opens (and truncates) a file and writes the format's header.
+     *
+     * @param file    Target file
+     * @param tagID   Tag ID as hex string
+     * @param sensor  Type of Sensor
+     * @param options Delimiter, locale and compression
+     * @return Writer for rows of this file, closing it again must have no effect
+     * @throws IOException              If the file cannot be opened.
+     * @throws IllegalArgumentException When wrong sensor is given.
+     */
+    MeasurementWriter open(Path file, String tagID, RT0013.BIN_SENSOR_TYPES sensor, ExportOptions options) throws IOException;
+}
@@ -0,0 +1,111 @@
+package com.fhstp.it231503.caen.export;
+
+import com.fhstp.it231503.caen.rfid.RT0013;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Registry of export formats: built-in CSV, JSON Lines and binary records plus ServiceLoader providers.
+ *
+ * @author Emil Sedlacek / it231503
+ */
+public class ExportFormats {
+    /**
+     * German-decimal CSV as written by the legacy export.
+     */
+    public static final ExportFormat CSV = new ExportFormat() {
+        @Override
+        public String getName() {
+            return "csv";
+        }
+
+        @Override
+        public String getFileExtension() {
+            return ".csv";
+        }
+
+        @Override
+        public MeasurementWriter open(Path file, String tagID, RT0013.BIN_SENSOR_TYPES sensor, ExportOptions options) throws IOException {
+            return new CsvStreamWriter(file, sensor, options);
+        }
+    };
+    /**
+     * One JSON object per row.
+     */
+    public static final ExportFormat JSON_LINES = new ExportFormat() {
+        @Override
+        public String getName() {
+            return "jsonl";
+        }
+
+        @Override
+        public String getFileExtension() {
+            return ".jsonl";
+        }
+
+        @Override
+        public MeasurementWriter open(Path file, String tagID, RT0013.BIN_SENSOR_TYPES sensor, ExportOptions options) throws IOException {
+            return new JsonLinesWriter(file, tagID, sensor, options);
+        }
+    };
+    /**
+     * Compact little-endian records (see BinaryRecordWriter).
+     */
+    public static final ExportFormat BINARY = new ExportFormat() {
+        @Override
+        public String getName() {
+            return "bin";
+        }
+
+        @Override
+        public String getFileExtension() {
+            return ".rt13";
+        }
+
+        @Override
+        public MeasurementWriter open(Path file, String tagID, RT0013.BIN_SENSOR_TYPES sensor, ExportOptions options) throws IOException {
+            return new BinaryRecordWriter(file, tagID, sensor, options);
+        }
+    };
+
+    /**
+     * Function to list all formats, built-ins first.
+     *
+     * @return Formats by name
+     */
+    public static Map<String, ExportFormat> available() {
+        Map<String, ExportFormat> formats = new LinkedHashMap<>();
+        for (ExportFormat format : List.of(CSV, JSON_LINES, BINARY))
+            formats.put(format.getName(), format);
+        for (ExportFormat format : ServiceLoader.load(ExportFormat.class))
+            formats.putIfAbsent(format.getName(), format);
+        return formats;
+    }
+
+    /**
+     * Function to look up a format by name.
+     *
+     * @param name Name of format, case-insensitive
+     * @return Format or null if unknown
+     */
+    public static ExportFormat byName(String name) {
+        if (name == null)
+            return null;
+        return available().get(name.trim().toLowerCase());
+    }
+
+    /**
+     * Function to build the export file name of a tag and sensor.
+     *
+     * @param tagID   Tag ID as hex string
+     * @param sensor  Name of sensor
+     * @param format  Export format
+     * @param options Compression setting
+     * @return File name like "tagID_SENSOR_data.csv(.gz)"
+     */
+    public static String fileName(String tagID, String sensor, ExportFormat format, ExportOptions options) {
+        return tagID + "_" + sensor + "_data" + format.getFileExtension() + (options.gzip() ? ".gz" : "");
+    }
+}
@@ -0,0 +1,35 @@
+package com.fhstp.it231503.caen.export;
+
+import java.util.Locale;
+
+/**
+ * Output settings of a measurement export. Formats ignore settings they have no use for.
+ *
+ * @param delimiter Column delimiter (text formats)
+ * @param locale    Locale for the decimal separator (CSV only)
+ * @param gzip      Whether the file is gzip compressed
+ * @param maxRows   Rows per file kept by LTTB downsampling, 0 for all rows
+ * @author Emil Sedlacek / it231503
+ */
+public record ExportOptions(char delimiter, Locale locale, boolean gzip, int maxRows) {
+    /**
+     * Settings of the legacy CSV export: ';' delimiter, comma decimals, no compression, all rows.
+     */
+    public static final ExportOptions DEFAULT = new ExportOptions(';', Locale.GERMANY, false, 0);
+
+    /**
+     * @param enabled Whether the file shall be gzip compressed
+     * @return Copy with changed compression setting
+     */
+    public ExportOptions withGzip(boolean enabled) {
+        return new ExportOptions(delimiter, locale, enabled, maxRows);
+    }
+
+    /**
+     * @param rows Rows per file to keep (see LttbWriter), 0 for all rows
+     * @return Copy with changed downsampling setting
+     */
+    public ExportOptions withMaxRows(int rows) {
+        return new ExportOptions(delimiter, locale, gzip, Math.max(0, rows));
+    }
+}
@@ -0,0 +1,70 @@
+package com.fhstp.it231503.caen.export;
+
+import com.fhstp.it231503.caen.rfid.RT0013;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static com.fhstp.it231503.caen.util.Helper.fixedpointToFloat;
+
+/**
+ * Streaming JSON Lines writer for measurement rows. One object per line:
+ * {"tag":"E280...","sensor":"TEMPERATURE","ts":1700000000,"time":"2023-11-14T22:13:20Z","value":21.5}
+ * Missing timestamps or values (including NaN) are written as null.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Not thread-safe. No header line, every row is self-describing.
+ */
+public class JsonLinesWriter extends TextStreamWriter {
+    private final RT0013.BIN_SENSOR_TYPES sensor;
+    /**
+     * Constant row prefix including tag and sensor.
+     */
+    private final String rowPrefix;
+
+    /**
+     * Opens (and truncates) a JSON Lines file.
+     *
+     * @param file    Target file
+     * @param tagID   Tag ID as hex string
+     * @param sensor  Type of Sensor
+     * @param options Compression setting
+     * @throws IOException              If the file cannot be opened.
+     * @throws IllegalArgumentException When wrong sensor is given.
+     */
+    public JsonLinesWriter(Path file, String tagID, RT0013.BIN_SENSOR_TYPES sensor, ExportOptions options) throws IOException {
+        super(file, checked(sensor, options).gzip());
+        this.sensor = sensor;
+        this.rowPrefix = "{\"tag\":\"" + escape(tagID) + "\",\"sensor\":\"" + sensor + "\",\"ts\":";
+    }
+
+    @Override
+    public void writeRow(long epochSeconds, short fixedPoint) throws IOException {
+        writeRow(epochSeconds, fixedPoint != NO_VALUE, (fixedPoint != NO_VALUE) ? fixedpointToFloat(sensor, fixedPoint) : 0f);
+    }
+
+
+    private void writeRow(long epochSeconds, boolean hasValue, float value) throws IOException {
+        ensureRowSpace();
+        chars.put(rowPrefix);
+        if (epochSeconds == NO_TIME) {
+            chars.put("null,\"time\":null");
+        } else {
+            appendLong(epochSeconds);
+            chars.put(",\"time\":\"");
+            appendTimestamp(epochSeconds, 'T');
+            chars.put("Z\"");
+        }
+        chars.put(",\"value\":");
+        if (hasValue && Float.isFinite(value)) // JSON has no NaN
+            appendValue(value, '.');
+        else
+            chars.put("null");
+        chars.put("}\n");
+        rows++;
+    }
+
+    private static String escape(String text) {
+        return (text == null) ? "" : text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,245 @@
+package com.fhstp.it231503.caen.export;
+
+import com.fhstp.it231503.caen.rfid.RT0013;
+import com.fhstp.it231503.caen.util.measurmentPoint;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static com.fhstp.it231503.caen.util.Helper.fixedpointToFloat;
+
+/**
+ * Shape-preserving downsampler (largest-triangle-three-buckets) in front of another MeasurementWriter.
+ * Rows are streamed through and only the selected ones are forwarded, in order. Memory is bounded by two buckets.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Not thread-safe. The x-axis is the row position, which matches time for the fixed sampling interval of a log
+ * and also works for rows without timestamp. Rows without sample are dropped while downsampling.
+ * @see "Steinarsson, Downsampling Time Series for Visual Representation (2013)"
+ */
+public class LttbWriter implements MeasurementWriter {
+    /**
+     * Buffered rows of one bucket.
+     */
+    private static final class Bucket {
+        int number = -1;
+        long first = -1;
+        int size = 0;
+        long[] times;
+        short[] values;
+        float[] y;
+
+        Bucket(int capacity) {
+            times = new long[capacity];
+            values = new short[capacity];
+            y = new float[capacity];
+        }
+
+        void add(int bucket, long position, long time, short value, float sample) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                y = Arrays.copyOf(y, size * 2);
+            }
+            if (size == 0) {
+                number = bucket;
+                first = position;
+            }
+            times[size] = time;
+            values[size] = value;
+            y[size] = sample;
+            size++;
+        }
+
+        double averageX() {
+            return first + (size - 1) / 2.0;
+        }
+
+        double averageY() {
+            double sum = 0;
+            for (int i = 0; i < size; i++)
+                sum += y[i];
+            return sum / size;
+        }
+    }
+
+    private final MeasurementWriter target;
+    private final RT0013.BIN_SENSOR_TYPES sensor;
+    private final int threshold;
+    private final double every;
+    private final boolean passThrough;
+    private Bucket current;
+    private Bucket next;
+    private long position = 0;
+    private int bucket = 0;
+    private long bucketEnd;
+    private boolean pending = false;
+    private long pendingTime;
+    private short pendingValue;
+    // Last selected point (a)
+    private double ax;
+    private double ay;
+
+    /**
+     * Wraps a writer.
+     *
+     * @param target    Receiver of the selected rows, closed with this writer
+     * @param sensor    Type of Sensor, for fixed-point conversion
+     * @param totalRows Count of rows with sample that will be written (decides the bucket width)
+     * @param threshold Count of rows to keep, at least 3. Fewer rows than that are passed through unchanged
+     * @throws IllegalArgumentException When wrong sensor is given.
+     */
+    public LttbWriter(MeasurementWriter target, RT0013.BIN_SENSOR_TYPES sensor, long totalRows, int threshold) {
+        if (sensor == null)
+            throw new IllegalArgumentException("Wrong sensor given");
+        this.target = target;
+        this.sensor = sensor;
+        this.threshold = threshold;
+        this.passThrough = threshold < 3 || totalRows <= threshold;
+        this.every = passThrough ? 1 : (double) (totalRows - 2) / (threshold - 2);
+        this.bucketEnd = (long) Math.floor(every) + 1;
+        int capacity = (int) Math.min(Math.ceil(every) + 1, 1 << 16);
+        this.current = new Bucket(capacity);
+        this.next = new Bucket(capacity);
+    }
+
+    /**
+     * Function to downsample a decoded series in memory.
+     *
+     * @param dataTable Decoded measurement points
+     * @param sensor    Type of Sensor
+     * @param threshold Count of points to keep
+     * @return Selected points in order, all points with sample if there are not more than threshold
+     */
+    public static List<measurmentPoint> downsample(List<measurmentPoint> dataTable, RT0013.BIN_SENSOR_TYPES sensor, int threshold) {
+        long samples = dataTable.stream().filter(measurmentPoint::hasValue).count();
+        List<measurmentPoint> selected = new ArrayList<>();
+        MeasurementWriter collect = new MeasurementWriter() {
+            @Override
+            public void writeRow(long epochSeconds, short fixedPoint) {
+                selected.add(new measurmentPoint(
+                        (epochSeconds != NO_TIME) ? new Date(epochSeconds * 1000L) : null,
+                        (fixedPoint != NO_VALUE) ? fixedpointToFloat(sensor, fixedPoint) : Float.NaN, fixedPoint));
+            }
+
+            @Override
+            public void writeRow(measurmentPoint point) {
+                selected.add(point);
+            }
+
+            @Override
+            public long getRows() {
+                return selected.size();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (LttbWriter writer = new LttbWriter(collect, sensor, samples, threshold)) {
+            for (measurmentPoint point : dataTable)
+                if (point.hasValue())
+                    writer.writeRow(point);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // In-memory target, does not happen
+        }
+        return selected;
+    }
+
+    @Override
+    public void writeRow(long epochSeconds, short fixedPoint) throws IOException {
+        if (passThrough) {
+            target.writeRow(epochSeconds, fixedPoint);
+            return;
+        }
+        if (fixedPoint == NO_VALUE)
+            return;
+
+        if (position == 0) {
+            // First row is always kept
+            target.writeRow(epochSeconds, fixedPoint);
+            ax = 0;
+            ay = fixedpointToFloat(sensor, fixedPoint);
+            position = 1;
+            return;
+        }
+        // Hold back one row, the last row is always kept
+        if (pending)
+            push(position - 1, pendingTime, pendingValue);
+        pending = true;
+        pendingTime = epochSeconds;
+        pendingValue = fixedPoint;
+        position++;
+    }
+
+    private void push(long at, long time, short value) throws IOException {
+        while (at >= bucketEnd && bucket < threshold - 3) {
+            bucket++;
+            bucketEnd = (long) Math.floor((bucket + 1) * every) + 1;
+        }
+        float sample = fixedpointToFloat(sensor, value);
+        if (current.size == 0 || current.number == bucket)
+            current.add(bucket, at, time, value, sample);
+        else if (next.size == 0 || next.number == bucket)
+            next.add(bucket, at, time, value, sample);
+        else {
+            // Bucket after next started, next is complete
+            select(current, next.averageX(), next.averageY());
+            Bucket done = current;
+            current = next;
+            next = done;
+            next.size = 0;
+            next.add(bucket, at, time, value, sample);
+        }
+    }
+
+    /**
+     * Function to forward the row of a bucket forming the largest triangle with the last selected row and point c.
+     */
+    private void select(Bucket from, double cx, double cy) throws IOException {
+        int best = 0;
+        double bestArea = -1;
+        for (int i = 0; i < from.size; i++) {
+            double area = Math.abs((ax - cx) * (from.y[i] - ay) - (ax - (from.first + i)) * (cy - ay));
+            if (area > bestArea) {
+                bestArea = area;
+                best = i;
+            }
+        }
+        target.writeRow(from.times[best], from.values[best]);
+        ax = from.first + best;
+        ay = from.y[best];
+    }
+
+    @Override
+    public long getRows() {
+        return target.getRows();
+    }
+
+    /**
+     * Forwards the remaining selections and the last row, then closes the target.
+     *
+     * @throws IOException If writing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!passThrough && pending) {
+                long last = position - 1;
+                float lastY = fixedpointToFloat(sensor, pendingValue);
+                if (next.size > 0) {
+                    select(current, next.averageX(), next.averageY());
+                    select(next, last, lastY);
+                } else if (current.size > 0)
+                    select(current, last, lastY);
+                target.writeRow(pendingTime, pendingValue);
+                pending = false;
+            }
+        } finally {
+            target.close();
+        }
+    }
+}
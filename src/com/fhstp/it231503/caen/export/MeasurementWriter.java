@@ -0,0 +1,49 @@
+package com.fhstp.it231503.caen.export;
+
+import com.fhstp.it231503.caen.util.measurmentPoint;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Streaming writer for measurement rows of one tag and sensor, created by an ExportFormat.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Implementations are not thread-safe.
+ */
+public interface MeasurementWriter extends Closeable {
+    /**
+     * Marker for rows without timestamp.
+     */
+    long NO_TIME = Long.MIN_VALUE;
+    /**
+     * Marker for rows without sample.
+     */
+    short NO_VALUE = (short) 0xFFFF;
+
+    /**
+     * Writes a row from raw decoder output.
+     *
+     * @param epochSeconds Timestamp in seconds (UTC) or NO_TIME
+     * @param fixedPoint   Raw register value or NO_VALUE
+     * @throws IOException If writing fails.
+     */
+    void writeRow(long epochSeconds, short fixedPoint) throws IOException;
+
+    /**
+     * Writes a row from a measurement point by its raw register value.
+     *
+     * @param point Measurement point, written as missing if it has no sample
+     * @throws IOException If writing fails.
+     */
+    default void writeRow(measurmentPoint point) throws IOException {
+        Date date = point.getDate();
+        writeRow((date != null) ? Math.floorDiv(date.getTime(), 1000L) : NO_TIME, point.getFixedPoint());
+    }
+
+    /**
+     * @return Count of data rows written so far.
+     */
+    long getRows();
+}
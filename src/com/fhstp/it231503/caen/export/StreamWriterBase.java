@@ -0,0 +1,115 @@
+package com.fhstp.it231503.caen.export;
+
+import com.fhstp.it231503.caen.rfid.RT0013;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Common plumbing of the streaming writers: buffered NIO channel with optional gzip.
+ *
+ * @author Emil Sedlacek / it231503
+ */
+abstract class StreamWriterBase implements MeasurementWriter {
+    /**
+     * Size of the reused buffers.
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Reused output buffer, drained to the channel when full.
+     */
+    final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final WritableByteChannel channel;
+    long rows = 0;
+
+    /**
+     * Function to check the arguments of a writer before its file is opened (and truncated).
+     *
+     * @param sensor  Type of Sensor
+     * @param options Export options
+     * @return Options
+     * @throws IllegalArgumentException When wrong sensor is given.
+     */
+    static ExportOptions checked(RT0013.BIN_SENSOR_TYPES sensor, ExportOptions options) {
+        if (sensor == null)
+            throw new IllegalArgumentException("Wrong sensor given");
+        return options;
+    }
+
+    /**
+     * Opens (and truncates) the target file.
+     *
+     * @param file Target file
+     * @param gzip Whether to compress the output
+     * @throws IOException If the file cannot be opened.
+     */
+    StreamWriterBase(Path file, boolean gzip) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        if (!gzip) {
+            this.channel = fileChannel;
+            return;
+        }
+        try {
+            this.channel = Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(fileChannel), BUFFER_SIZE));
+        } catch (IOException | RuntimeException e) {
+            // e.g. disk full while writing the gzip header
+            try {
+                fileChannel.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Makes sure the byte buffer has room for said count of bytes.
+     */
+    void ensureBytes(int count) throws IOException {
+        if (bytes.remaining() < count)
+            drainBytes();
+    }
+
+    /**
+     * Writes the byte buffer to the channel and clears it.
+     */
+    void drainBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining())
+            channel.write(bytes);
+        bytes.clear();
+    }
+
+    /**
+     * Hook to move pending data into the byte buffer before closing.
+     */
+    void finish() throws IOException {
+    }
+
+    /**
+     * Finishes and closes the file, closing again has no effect (Closeable contract).
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen())
+            return;
+        try {
+            finish();
+            drainBytes();
+        } finally {
+            channel.close();
+        }
+    }
+}
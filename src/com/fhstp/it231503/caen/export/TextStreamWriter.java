@@ -0,0 +1,143 @@
+package com.fhstp.it231503.caen.export;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Common plumbing of the text writers: reused char buffer encoded to UTF-8, allocation-light number formatting.
+ *
+ * @author Emil Sedlacek / it231503
+ */
+abstract class TextStreamWriter extends StreamWriterBase {
+    /**
+     * Space a single row needs at most in the char buffer.
+     */
+    static final int MAX_ROW_CHARS = 256;
+    /**
+     * Date part of timestamps. Only used once per day change.
+     */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    /**
+     * Cached date part of the last written timestamp.
+     */
+    private long cachedDay = Long.MIN_VALUE;
+    private String cachedDate = null;
+
+    TextStreamWriter(Path file, boolean gzip) throws IOException {
+        super(file, gzip);
+    }
+
+    /**
+     * Makes sure the char buffer has room for one more row.
+     */
+    void ensureRowSpace() throws IOException {
+        if (chars.remaining() < MAX_ROW_CHARS)
+            flushChars(false);
+    }
+
+    /**
+     * Appends a timestamp "yyyy-MM-dd" + separator + "HH:mm:ss" in UTC.
+     */
+    void appendTimestamp(long epochSeconds, char separator) {
+        long day = Math.floorDiv(epochSeconds, 86400L);
+        int secondOfDay = (int) Math.floorMod(epochSeconds, 86400L);
+        if (day != cachedDay) {
+            cachedDay = day;
+            cachedDate = LocalDate.ofEpochDay(day).format(DATE_FORMAT);
+        }
+        chars.put(cachedDate).put(separator);
+        appendTwoDigits(secondOfDay / 3600);
+        chars.put(':');
+        appendTwoDigits(secondOfDay / 60 % 60);
+        chars.put(':');
+        appendTwoDigits(secondOfDay % 60);
+    }
+
+    private void appendTwoDigits(int value) {
+        chars.put((char) ('0' + value / 10)).put((char) ('0' + value % 10));
+    }
+
+    /**
+     * Appends a value like Float.toString() with the given decimal separator.
+     *
+     * @implNote RT0013 values are multiples of 1/32 and are written exactly without String allocation.
+     */
+    void appendValue(float value, char decimalSeparator) {
+        float scaled = value * 32f;
+        if (scaled != (int) scaled || Math.abs(value) >= 1e6f) {
+            chars.put(Float.toString(value).replace('.', decimalSeparator));
+            return;
+        }
+        int units = (int) scaled;
+        if (units < 0) {
+            chars.put('-');
+            units = -units;
+        }
+        appendLong(units / 32);
+        chars.put(decimalSeparator);
+        int fraction = (units % 32) * 3125; // 1/32 = 0.03125 -> five decimals
+        if (fraction == 0) {
+            chars.put('0');
+            return;
+        }
+        int digits = 5;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        for (int div = (int) Math.pow(10, digits - 1); div > 0; div /= 10)
+            chars.put((char) ('0' + fraction / div % 10));
+    }
+
+    /**
+     * Appends a signed integer without String allocation.
+     */
+    void appendLong(long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                chars.put(Long.toString(value));
+                return;
+            }
+            chars.put('-');
+            value = -value;
+        }
+        if (value >= 10)
+            appendLong(value / 10);
+        chars.put((char) ('0' + value % 10));
+    }
+
+    @Override
+    void finish() throws IOException {
+        flushChars(true);
+    }
+
+    /**
+     * Encodes the char buffer into the byte buffer, draining it as needed.
+     */
+    private void flushChars(boolean endOfInput) throws IOException {
+        chars.flip();
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isError())
+                result.throwException();
+            if (!result.isOverflow())
+                break;
+            drainBytes();
+        }
+        if (endOfInput) {
+            while (encoder.flush(bytes).isOverflow())
+                drainBytes();
+        }
+        drainBytes();
+        chars.compact();
+    }
+}
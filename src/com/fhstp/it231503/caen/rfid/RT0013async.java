@@ -0,0 +1,205 @@
+package com.fhstp.it231503.caen.rfid;
+
+import com.caen.RFIDLibrary.CAENRFIDTag;
+import com.fhstp.it231503.caen.rfid.RT0013.BIN_SENSOR_TYPES;
+import com.fhstp.it231503.caen.util.binSetting;
+import com.fhstp.it231503.caen.util.measurmentPoint;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.fhstp.it231503.caen.rfid.RT0013.*;
+
+/**
+ * Asynchronous facade of RT0013manager. Every operation is queued on the session of the tag locked onto at call time
+ * (see RT0013tagSession), so the caller's thread is never blocked; decoding runs on the common pool. Downloads and
+ * status checks are queued chunk by chunk instead, scheduled as BULK and INTERACTIVE (see RT0013scheduler).
+ * Results compose as usual, each call takes an optional timeout.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Thread-safe. A timeout completes the future exceptionally (TimeoutException) but does not abort the RF
+ * transfer already running. An operation fails with IllegalStateException at its next step if another tag was locked onto
+ * meanwhile, steps already done stay done.
+ */
+public class RT0013async {
+    /**
+     * Runs chunked operations, their chunks are queued on the tag session one by one.
+     */
+    private static final Executor CHUNKED = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final RT0013manager manager;
+    private final Duration timeout;
+
+    /**
+     * @param manager Manager to drive
+     * @param timeout Default timeout of every operation, null for none
+     */
+    public RT0013async(RT0013manager manager, Duration timeout) {
+        this.manager = manager;
+        this.timeout = timeout;
+    }
+
+    public RT0013async(RT0013manager manager) {
+        this(manager, null);
+    }
+
+    /**
+     * Function to queue an operation on the session of the current tag.
+     */
+    private <T> CompletableFuture<T> submit(Supplier<T> operation, Duration timeout) {
+        CAENRFIDTag tag = manager.myRT0013rain.getTag();
+        if (tag == null)
+            return CompletableFuture.failedFuture(new IllegalStateException("No tag locked onto"));
+        return submit(tag, operation, manager.myRT0013rain.session(tag), timeout);
+    }
+
+    /**
+     * Function to run an operation of many chunks beside the session of the current tag, so every chunk is queued on
+     * the session (and scheduled) on its own and more urgent commands get in between.
+     */
+    private <T> CompletableFuture<T> submitChunked(Supplier<T> operation, RT0013scheduler.Priority priority, Duration timeout) {
+        CAENRFIDTag tag = manager.myRT0013rain.getTag();
+        if (tag == null)
+            return CompletableFuture.failedFuture(new IllegalStateException("No tag locked onto"));
+        RT0013scheduler.Command command = new RT0013scheduler.Command(priority,
+                (timeout == null) ? Long.MAX_VALUE : System.nanoTime() + timeout.toNanos());
+        return submit(tag, () -> {
+            try {
+                return RT0013scheduler.within(command, operation::get);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }, CHUNKED, timeout);
+    }
+
+    private <T> CompletableFuture<T> submit(CAENRFIDTag tag, Supplier<T> operation, Executor executor, Duration timeout) {
+        CompletableFuture<T> future = CompletableFuture.supplyAsync(() -> manager.bound(tag, operation), executor);
+        return (timeout == null) ? future : future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Re-reads the live status words at INTERACTIVE priority, served between the chunks of running downloads.
+     * The default timeout applies as deadline, one second if none.
+     *
+     * @return Consistent image after the refresh
+     */
+    public CompletableFuture<RT0013image> status() {
+        return status((timeout != null) ? timeout : Duration.ofSeconds(1));
+    }
+
+    public CompletableFuture<RT0013image> status(Duration timeout) {
+        return submitChunked(() -> {
+            manager.bufferRefreshStatus();
+            return manager.bufferSnapshot();
+        }, RT0013scheduler.Priority.INTERACTIVE, timeout);
+    }
+
+    /**
+     * Fetches all registers as BULK, in chunks other commands can get in between.
+     *
+     * @return Consistent image after the fetch
+     */
+    public CompletableFuture<RT0013image> fetch() {
+        return fetch(timeout);
+    }
+
+    public CompletableFuture<RT0013image> fetch(Duration timeout) {
+        return submitChunked(() -> {
+            manager.bufferFetchRegisters();
+            return manager.bufferSnapshot();
+        }, RT0013scheduler.Priority.BULK, timeout);
+    }
+
+    /**
+     * Reads consecutive registers, served from buffer where valid.
+     *
+     * @param first First wordaddress
+     * @param words Number of words
+     * @return Raw data, index 0 equals first
+     */
+    public CompletableFuture<short[]> readRange(short first, int words) {
+        return readRange(first, words, timeout);
+    }
+
+    public CompletableFuture<short[]> readRange(short first, int words, Duration timeout) {
+        return submit(() -> manager.bufferGetRange(first, words), timeout);
+    }
+
+    /**
+     * Writes consecutive registers in one transaction.
+     *
+     * @param first Address of first tag register
+     * @param words Values to write
+     * @return Whether all words read back as written
+     */
+    public CompletableFuture<Boolean> writeBlock(short first, short[] words) {
+        return writeBlock(first, words, timeout);
+    }
+
+    public CompletableFuture<Boolean> writeBlock(short first, short[] words, Duration timeout) {
+        short[] copy = words.clone();
+        return submit(() -> manager.bufferUpdateRange(first, copy), timeout);
+    }
+
+    /**
+     * Stores bin configuration of a sensor.
+     *
+     * @param settings Sorted and checked list of binSettings
+     * @param sensor   Type of Sensor
+     * @return Completion
+     */
+    public CompletableFuture<Void> configure(List<binSetting> settings, BIN_SENSOR_TYPES sensor) {
+        return configure(settings, sensor, timeout);
+    }
+
+    public CompletableFuture<Void> configure(List<binSetting> settings, BIN_SENSOR_TYPES sensor, Duration timeout) {
+        return submit(() -> {
+            manager.configureBins(settings, sensor);
+            manager.bufferInvalidateVolatile();
+            return null;
+        }, timeout);
+    }
+
+    /**
+     * Performs a full reset of the tag, polling until done (up to 600 s).
+     *
+     * @return Whether the tag reported the reset as done
+     */
+    public CompletableFuture<Boolean> reset() {
+        return reset(timeout);
+    }
+
+    public CompletableFuture<Boolean> reset(Duration timeout) {
+        return submit(() -> manager.resetTag(false), timeout);
+    }
+
+    /**
+     * Reads the log of a sensor and decodes it off the session thread.
+     *
+     * @param sensor Type of Sensor
+     * @return Measurement points
+     * @throws IllegalArgumentException (in future) If sensor doesnt exist.
+     */
+    public CompletableFuture<List<measurmentPoint>> parse(BIN_SENSOR_TYPES sensor) {
+        return parse(sensor, timeout);
+    }
+
+    public CompletableFuture<List<measurmentPoint>> parse(BIN_SENSOR_TYPES sensor, Duration timeout) {
+        record Log(short samplesNum, short mode, short[] area) {
+        }
+        CompletableFuture<List<measurmentPoint>> future = submit(() -> new Log(
+                manager.getSamplesNum(sensor),
+                RT0013decoder.logMode(sensor, manager.bufferGetValue(REG_BIN_ENA_TIME_STORE), manager.bufferGetValue(REG_BIN_ENA_SAMPLE_STORE)),
+                manager.getLogArea(sensor)
+        ), null).thenApplyAsync(log -> RT0013decoder.parseLogData(sensor, log.samplesNum(), log.mode(), log.area()), ForkJoinPool.commonPool());
+        return (timeout == null) ? future : future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+}
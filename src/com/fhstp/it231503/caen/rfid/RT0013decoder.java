@@ -0,0 +1,422 @@
+package com.fhstp.it231503.caen.rfid;
+
+import com.fhstp.it231503.caen.export.ExportFormat;
+import com.fhstp.it231503.caen.export.ExportFormats;
+import com.fhstp.it231503.caen.export.ExportOptions;
+import com.fhstp.it231503.caen.export.LttbWriter;
+import com.fhstp.it231503.caen.export.MeasurementWriter;
+import com.fhstp.it231503.caen.rfid.RT0013.BIN_SENSOR_TYPES;
+import com.fhstp.it231503.caen.util.measurmentPoint;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import static com.fhstp.it231503.caen.rfid.RT0013.*;
+import static com.fhstp.it231503.caen.util.Helper.*;
+
+/**
+ * Static decoding class for log areas of QLOG CAEN RT0013 RFID TAG. Works on raw register words only, no tag access.
+ *
+ * @author Emil Sedlacek / it231503
+ * @see "CAEN Technical Information"
+ */
+public class RT0013decoder {
+    /**
+     * Word count of a full register image (REG_START...REG_END).
+     */
+    public static final int IMAGE_WORDS = REG_END - REG_START + 1;
+    /**
+     * Marker of unwritten words in log area.
+     */
+    public static final short EMPTY_MARKER = (short) 0xFFFF;
+    /**
+     * Shared pool for bulk decoding, bounded by core count.
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Function to derive the log mode from the bin enabling registers.
+     *
+     * @param sensor         Type of Sensor according to enum
+     * @param enaTimeStore   Value of REG_BIN_ENA_TIME_STORE
+     * @param enaSampleStore Value of REG_BIN_ENA_SAMPLE_STORE
+     * @return Bit 0 set if timestamps are logged, Bit 1 set if samples are logged.
+     * @throws IllegalArgumentException If sensor doesnt exist.
+     */
+    public static short logMode(BIN_SENSOR_TYPES sensor, short enaTimeStore, short enaSampleStore) {
+        short offset = switch (sensor) {
+            case TEMPERATURE -> BITPOS_BIN00_T_EN;
+            case HUMIDITY -> BITPOS_BIN00_H_EN;
+            case null, default -> throw new IllegalArgumentException("Unknown sensorType: " + sensor);
+        };
+
+        short mode = 0;
+        for (short i = 0; i <= 5; i++)
+            if (getBit(enaTimeStore, offset + i))
+                mode = (short) setBit(mode, 0, true);
+
+        for (short i = 0; i <= 5; i++)
+            if (getBit(enaSampleStore, offset + i))
+                mode = (short) setBit(mode, 1, true);
+        return mode;
+    }
+
+    /**
+     * Function to get the count of log area words a number of samples takes (timestamp: 2 words, sample: 1 word).
+     *
+     * @param samplesNum Value of REG_SAMPLES_NUM_X
+     * @param mode       Log mode according to logMode()
+     * @return Count of words from the start of the log area, 0 if nothing is logged
+     */
+    public static int logWords(short samplesNum, short mode) {
+        int wordsPerRow = (getBit(mode, 0) ? 2 : 0) + (getBit(mode, 1) ? 1 : 0);
+        return Math.max(0, (int) samplesNum) * wordsPerRow;
+    }
+
+    /**
+     * Receiver of decoded log rows, called in log order.
+     */
+    @FunctionalInterface
+    public interface LogSink {
+        /**
+         * Marker for rows without timestamp.
+         */
+        long NO_TIME = Long.MIN_VALUE;
+
+        /**
+         * Receives one completed row.
+         *
+         * @param epochSeconds Timestamp in seconds (UTC) or NO_TIME
+         * @param fixedPoint   Raw register value or EMPTY_MARKER (0xFFFF) if no sample is stored
+         * @throws IOException If the receiver fails to store the row.
+         */
+        void accept(long epochSeconds, short fixedPoint) throws IOException;
+    }
+
+    /**
+     * Function to parse a raw log area row by row into a sink without building a list.
+     *
+     * @param sensor     Type of Sensor according to enum
+     * @param samplesNum Value of REG_SAMPLES_NUM_X
+     * @param mode       Log mode according to logMode()
+     * @param logArea    Raw log area of said sensor
+     * @param sink       Receiver of completed rows, in log order (unsorted)
+     * @return Count of rows passed to sink
+     * @throws IllegalArgumentException If sensor doesnt exist.
+     * @throws RuntimeException         If errors occur at data translation.
+     * @throws IOException              If the sink fails.
+     */
+    public static int streamLogData(BIN_SENSOR_TYPES sensor, short samplesNum, short mode, short[] logArea, LogSink sink) throws IOException {
+        if (sensor == null || (sensor != BIN_SENSOR_TYPES.TEMPERATURE && sensor != BIN_SENSOR_TYPES.HUMIDITY))
+            throw new IllegalArgumentException("Unknown sensorType: " + sensor);
+        if (samplesNum <= 0) {
+            throw new RuntimeException("Samples number must be greater than zero!");
+        }
+
+        // Interpret data
+        float[] logValues = new float[logArea.length];
+        if (getBit(mode, 1))
+            decode(sensor, logArea, logValues, 0, logArea.length);
+
+        short valueBufferSh = EMPTY_MARKER;
+        float valueBufferF = EMPTY_MARKER;
+        short[] dateBuffer = new short[2];
+
+        // Row under construction
+        long rowTime = LogSink.NO_TIME;
+        short rowValue = EMPTY_MARKER;
+        int rows = 0;
+
+        for (int ctr = 0; (ctr < logArea.length && rows + 1 < samplesNum); ctr++) {
+            if (logArea[ctr] == EMPTY_MARKER) // check if early end of log area
+                break;
+
+            // act according to cases
+            boolean complete;
+            switch (mode) {
+                case 0 -> throw new RuntimeException("Nothing to export as config invalid!");
+                case 1 -> {
+                    // Get from buffer
+                    dateBuffer[1] = (ctr % 2 == 0) ? logArea[ctr] : dateBuffer[1];
+                    dateBuffer[0] = (ctr % 2 == 1) ? logArea[ctr] : dateBuffer[0];
+
+                    // Conditionally put to row and add up
+                    if (dateBuffer[0] != EMPTY_MARKER && dateBuffer[1] != EMPTY_MARKER)
+                        rowTime = shortsToInt(dateBuffer);
+                    complete = rowTime != LogSink.NO_TIME;
+                }
+                case 2 -> {
+                    // Get from buffer
+                    valueBufferSh = logArea[ctr];
+
+                    // Conditionally put to row and add up
+                    if (valueBufferSh != EMPTY_MARKER && isValidValue(sensor, logValues[ctr]))
+                        rowValue = valueBufferSh;
+                    complete = rowValue != EMPTY_MARKER;
+                }
+                case 3 -> {
+                    // Get from buffer
+                    valueBufferSh = (ctr % 3 == 0) ? logArea[ctr] : valueBufferSh;
+                    valueBufferF = (ctr % 3 == 0) ? logValues[ctr] : valueBufferF;
+                    dateBuffer[1] = (ctr % 3 == 1) ? logArea[ctr] : dateBuffer[1];
+                    dateBuffer[0] = (ctr % 3 == 2) ? logArea[ctr] : dateBuffer[0];
+
+                    // Conditionally put to row and add up
+                    if (dateBuffer[0] != EMPTY_MARKER && dateBuffer[1] != EMPTY_MARKER)
+                        rowTime = shortsToInt(dateBuffer);
+                    if (valueBufferSh != EMPTY_MARKER && isValidValue(sensor, valueBufferF))
+                        rowValue = valueBufferSh;
+                    complete = rowTime != LogSink.NO_TIME && rowValue != EMPTY_MARKER;
+                }
+                default -> throw new RuntimeException("Unknown mode: " + mode);
+            }
+
+            if (complete) {
+                sink.accept(rowTime, rowValue);
+                rows++;
+                rowTime = LogSink.NO_TIME;
+                rowValue = EMPTY_MARKER;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Function to parse a raw log area directly into a list of measurement points.
+     *
+     * @param sensor     Type of Sensor according to enum
+     * @param samplesNum Value of REG_SAMPLES_NUM_X
+     * @param mode       Log mode according to logMode()
+     * @param logArea    Raw log area of said sensor
+     * @return List of measurement points, sorted by timestamp if present
+     * @throws IllegalArgumentException If sensor doesnt exist.
+     * @throws RuntimeException         If errors occur at data translation.
+     */
+    public static List<measurmentPoint> parseLogData(BIN_SENSOR_TYPES sensor, short samplesNum, short mode, short[] logArea) {
+        List<measurmentPoint> dataTable = new ArrayList<>();
+        try {
+            streamLogData(sensor, samplesNum, mode, logArea, (epochSeconds, fixedPoint) -> dataTable.add(new measurmentPoint(
+                    (epochSeconds != LogSink.NO_TIME) ? new Date(epochSeconds * 1000L) : null,
+                    (fixedPoint != EMPTY_MARKER) ? fixedpointToFloat(sensor, fixedPoint) : Float.NaN,
+                    fixedPoint
+            )));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // List sink never fails
+        }
+
+        // Sort table by timestamp if present
+        if (getBit(mode, 0))
+            dataTable.sort(
+                    Comparator.comparing(measurmentPoint::getDate, Comparator.nullsLast(Comparator.naturalOrder()))
+            );
+
+        return dataTable;
+    }
+
+    /**
+     * Function to parse log data of a full register image by sensor.
+     *
+     * @param sensor Type of Sensor according to enum
+     * @param image  Register image, index equals wordaddress (see IMAGE_WORDS)
+     * @return List of measurement points
+     * @throws IllegalArgumentException If sensor doesnt exist or image is too short.
+     * @throws RuntimeException         If errors occur at data translation.
+     */
+    public static List<measurmentPoint> parseLogData(BIN_SENSOR_TYPES sensor, short[] image) {
+        return parseLogData(sensor, imageSamplesNum(sensor, image), imageLogMode(sensor, image), imageLogArea(sensor, image));
+    }
+
+    /**
+     * Function to stream log data of a full register image by sensor into a sink.
+     *
+     * @param sensor Type of Sensor according to enum
+     * @param image  Register image, index equals wordaddress (see IMAGE_WORDS)
+     * @param sink   Receiver of completed rows, in log order (unsorted)
+     * @return Count of rows passed to sink
+     * @throws IllegalArgumentException If sensor doesnt exist or image is too short.
+     * @throws RuntimeException         If errors occur at data translation.
+     * @throws IOException              If the sink fails.
+     */
+    public static int streamLogData(BIN_SENSOR_TYPES sensor, short[] image, LogSink sink) throws IOException {
+        return streamLogData(sensor, imageSamplesNum(sensor, image), imageLogMode(sensor, image), imageLogArea(sensor, image), sink);
+    }
+
+    /**
+     * Function to stream log data of a full register image by sensor into a sink, sorted by timestamp if present
+     * like parseLogData(). Rows without timestamp come last.
+     *
+     * @param sensor Type of Sensor according to enum
+     * @param image  Register image, index equals wordaddress (see IMAGE_WORDS)
+     * @param sink   Receiver of completed rows
+     * @return Count of rows passed to sink
+     * @throws IllegalArgumentException If sensor doesnt exist or image is too short.
+     * @throws RuntimeException         If errors occur at data translation.
+     * @throws IOException              If the sink fails.
+     * @implNote Logs with timestamps are buffered for sorting, at most one log area of rows.
+     */
+    public static int streamSortedLogData(BIN_SENSOR_TYPES sensor, short[] image, LogSink sink) throws IOException {
+        short mode = imageLogMode(sensor, image);
+        if (!getBit(mode, 0))
+            return streamLogData(sensor, image, sink);
+
+        record Row(long epochSeconds, short fixedPoint) {
+        }
+        List<Row> rows = new ArrayList<>();
+        streamLogData(sensor, imageSamplesNum(sensor, image), mode, imageLogArea(sensor, image),
+                (epochSeconds, fixedPoint) -> rows.add(new Row(epochSeconds, fixedPoint)));
+        rows.sort(Comparator.comparingLong(row -> (row.epochSeconds() != LogSink.NO_TIME) ? row.epochSeconds() : Long.MAX_VALUE));
+        for (Row row : rows)
+            sink.accept(row.epochSeconds(), row.fixedPoint());
+        return rows.size();
+    }
+
+    /**
+     * Function to get SAMPLES_NUM of a sensor from a register image.
+     */
+    private static short imageSamplesNum(BIN_SENSOR_TYPES sensor, short[] image) {
+        if (image == null || image.length < IMAGE_WORDS)
+            throw new IllegalArgumentException("Register image incomplete!");
+        return switch (sensor) {
+            case TEMPERATURE -> image[REG_SAMPLES_NUM_T];
+            case HUMIDITY -> image[REG_SAMPLES_NUM_H];
+            case null, default -> throw new IllegalArgumentException("Unknown sensorType: " + sensor);
+        };
+    }
+
+    /**
+     * Function to get the log mode of a sensor from a register image.
+     */
+    private static short imageLogMode(BIN_SENSOR_TYPES sensor, short[] image) {
+        return logMode(sensor, image[REG_BIN_ENA_TIME_STORE], image[REG_BIN_ENA_SAMPLE_STORE]);
+    }
+
+    /**
+     * Function to cut the log area of a sensor out of a register image.
+     */
+    private static short[] imageLogArea(BIN_SENSOR_TYPES sensor, short[] image) {
+        return switch (sensor) {
+            case TEMPERATURE -> Arrays.copyOfRange(image, REG_LOG_AREA_T_START, REG_LOG_AREA_T_END + 1);
+            case HUMIDITY -> Arrays.copyOfRange(image, REG_LOG_AREA_H_START, REG_LOG_AREA_H_END + 1);
+            case null, default -> throw new IllegalArgumentException("Unknown sensorType: " + sensor);
+        };
+    }
+
+    /////////////////////// BULK FUNCTIONS //////////////////////
+
+    /**
+     * Function to parse both sensors of many register images in parallel.
+     *
+     * @param images Register images by tag ID
+     * @return Measurement points by tag ID and sensor, in order of images. Failed sensors map to an empty list.
+     */
+    public static Map<String, Map<BIN_SENSOR_TYPES, List<measurmentPoint>>> parseLogData(Map<String, short[]> images) {
+        List<DecodeTask> tasks = runAll(images, null, null);
+
+        Map<String, Map<BIN_SENSOR_TYPES, List<measurmentPoint>>> result = new LinkedHashMap<>();
+        for (DecodeTask task : tasks)
+            result.computeIfAbsent(task.tagID, k -> new EnumMap<>(BIN_SENSOR_TYPES.class)).put(task.sensor, task.join());
+        return result;
+    }
+
+    /**
+     * Function to parse and export both sensors of many register images in parallel.
+     * Files are named "tagID_SENSOR_data.csv" like the single tag export.
+     *
+     * @param images Register images by tag ID
+     */
+    public static void exportLogData(Map<String, short[]> images) {
+        exportLogData(images, ExportFormats.CSV, ExportOptions.DEFAULT);
+    }
+
+    /**
+     * Function to parse and export both sensors of many register images in parallel.
+     * Rows are streamed from the decoder to disk, sorted by timestamp if the log stores them (see
+     * streamSortedLogData()), memory stays bounded per task.
+     *
+     * @param images  Register images by tag ID
+     * @param format  Output format
+     * @param options Delimiter, locale and compression
+     * @see ExportFormats#fileName(String, String, ExportFormat, ExportOptions)
+     */
+    public static void exportLogData(Map<String, short[]> images, ExportFormat format, ExportOptions options) {
+        for (DecodeTask task : runAll(images, format, options))
+            task.join();
+    }
+
+    /**
+     * Function to count the rows with sample of a log, a cheap first pass for downsampling.
+     *
+     * @param sensor Type of Sensor
+     * @param image  Full register image (REG_START...REG_END)
+     * @return Count of rows with sample
+     * @throws IOException Not thrown, the sink does no I/O.
+     */
+    static long countSamples(BIN_SENSOR_TYPES sensor, short[] image) throws IOException {
+        long[] samples = {0};
+        streamLogData(sensor, image, (epochSeconds, fixedPoint) -> {
+            if (fixedPoint != EMPTY_MARKER)
+                samples[0]++;
+        });
+        return samples[0];
+    }
+
+    /**
+     * Function to fork one task per tag and sensor on the shared pool and wait for all of them.
+     */
+    private static List<DecodeTask> runAll(Map<String, short[]> images, ExportFormat format, ExportOptions options) {
+        List<DecodeTask> tasks = new ArrayList<>();
+        for (Map.Entry<String, short[]> entry : images.entrySet())
+            for (BIN_SENSOR_TYPES sensor : BIN_SENSOR_TYPES.values())
+                tasks.add(new DecodeTask(entry.getKey(), sensor, entry.getValue(), format, options));
+
+        POOL.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        return tasks;
+    }
+
+    /**
+     * Fork-join task decoding (or streaming to an export format) one sensor of one register image.
+     */
+    @SuppressWarnings("serial") // Forked in process only, never serialized
+    private static class DecodeTask extends RecursiveTask<List<measurmentPoint>> {
+        private final String tagID;
+        private final BIN_SENSOR_TYPES sensor;
+        private final short[] image;
+        private final ExportFormat format;
+        private final ExportOptions options;
+
+        DecodeTask(String tagID, BIN_SENSOR_TYPES sensor, short[] image, ExportFormat format, ExportOptions options) {
+            this.tagID = tagID;
+            this.sensor = sensor;
+            this.image = image;
+            this.format = format;
+            this.options = options;
+        }
+
+        @Override
+        protected List<measurmentPoint> compute() {
+            try {
+                if (format == null)
+                    return parseLogData(sensor, image);
+
+                Path file = Path.of(ExportFormats.fileName(tagID, sensor.toString(), format, options));
+                // Opened closes itself if wrapping fails, the wrapper closes it otherwise (closing twice is a no-op)
+                try (MeasurementWriter opened = format.open(file, tagID, sensor, options);
+                     MeasurementWriter writer = (options.maxRows() > 0)
+                             ? new LttbWriter(opened, sensor, countSamples(sensor, image), options.maxRows()) : opened) {
+                    streamSortedLogData(sensor, image, writer::writeRow);
+                }
+                System.out.println("File added: " + file);
+            } catch (IOException e) {
+                System.err.println("An error occurred while writing " + tagID + " (" + sensor + "): " + e.getMessage());
+            } catch (RuntimeException e) {
+                System.err.println("Skipping " + tagID + " (" + sensor + "): " + e.getMessage());
+            }
+            return new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.fhstp.it231503.caen.rfid;
+
+import java.util.Arrays;
+
+import static com.fhstp.it231503.caen.rfid.RT0013.REG_START;
+import static com.fhstp.it231503.caen.util.Helper.bytesToHexstring;
+
+/**
+ * Immutable, versioned copy of a tag's register buffer. RT0013manager publishes a new one atomically after every change,
+ * so readers get a consistent image without locking, even while a fetch is running.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Thread-safe (immutable)
+ */
+public final class RT0013image {
+    private final byte[] tagID;
+    private final long version;
+    private final short[] words;
+    private final long[] valid;
+    private final long[] fetched;
+
+    RT0013image(byte[] tagID, long version, short[] words, long[] valid, long[] fetched) {
+        this.tagID = tagID.clone();
+        this.version = version;
+        this.words = words;
+        this.valid = valid;
+        this.fetched = fetched;
+    }
+
+    public String getTagID() {
+        return bytesToHexstring(tagID);
+    }
+
+    /**
+     * @param tagID Raw tag ID
+     * @return Whether this image belongs to said tag
+     */
+    public boolean isOf(byte[] tagID) {
+        return Arrays.equals(this.tagID, tagID);
+    }
+
+    /**
+     * @return Version, increasing with every published change of the manager
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isValid(short wordaddress) {
+        int index = wordaddress - REG_START;
+        return index >= 0 && index < words.length && (valid[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * @param wordaddress Address of tag register
+     * @return Buffered value, undefined if not valid
+     */
+    public short get(short wordaddress) {
+        return words[wordaddress - REG_START];
+    }
+
+    /**
+     * @param region Region of interest
+     * @return Time of last fetch from tag in epoch millis, 0 if never
+     */
+    public long fetched(RT0013region region) {
+        return fetched[region.ordinal()];
+    }
+
+    /**
+     * @param wordaddress Address of tag register
+     * @param nowMillis   Current time in epoch millis
+     * @return Whether the word is valid and its region has not expired
+     */
+    public boolean isFresh(short wordaddress, long nowMillis) {
+        if (!isValid(wordaddress))
+            return false;
+        RT0013region region = RT0013region.of(wordaddress);
+        return region.isFresh(fetched(region), nowMillis);
+    }
+
+    /**
+     * @return Whether every word of the register map is valid
+     */
+    public boolean isComplete() {
+        for (int index = 0; index < words.length; index++)
+            if ((valid[index >>> 6] & (1L << index)) == 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * @return Copy of all words, index equals wordaddress
+     */
+    public short[] toArray() {
+        return words.clone();
+    }
+}
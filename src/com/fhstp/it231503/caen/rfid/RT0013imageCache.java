@@ -0,0 +1,158 @@
+package com.fhstp.it231503.caen.rfid;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Register images of several tags, keyed by tag ID and held in fixed-size off-heap slabs (see RT0013slabArena).
+ * The least recently used image is evicted (saved and its slab reused) once the byte budget is used up.
+ * Evicted images stay persisted and are rehydrated on next use.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Thread-safe
+ */
+public class RT0013imageCache {
+    /**
+     * Default budget, enough for a few thousand tags.
+     */
+    public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+    /**
+     * Word-level cache statistics.
+     *
+     * @param hits      Words served from buffer
+     * @param misses    Words read from tag
+     * @param evictions Images released due to budget
+     * @param images    Images currently held
+     * @param bytes     Off-heap bytes reserved for images
+     */
+    public record Stats(long hits, long misses, long evictions, int images, long bytes) {
+        @Override
+        public String toString() {
+            long total = hits + misses;
+            return images + " images (" + bytes / 1024 + " KiB), " + hits + " hits / " + misses + " misses"
+                    + ((total > 0) ? String.format(" (%.1f%%)", 100.0 * hits / total) : "")
+                    + ", " + evictions + " evictions";
+        }
+    }
+
+    private final Path root;
+    private final RT0013slabArena arena;
+    private final LinkedHashMap<String, RT0013snapshot> images = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Pin counts of images in use, keyed by tag ID.
+     */
+    private final Map<String, Integer> pinned = new HashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long evictions;
+
+    /**
+     * @param root   Snapshot directory, null to never persist images
+     * @param budget Byte budget of held images, at least two images are always held. Reserved in chunks on demand
+     */
+    public RT0013imageCache(Path root, long budget) {
+        this.root = root;
+        this.arena = new RT0013slabArena(RT0013snapshot.SLAB_BYTES, Math.clamp(budget / RT0013snapshot.SLAB_BYTES, 2, Integer.MAX_VALUE / RT0013snapshot.SLAB_BYTES));
+    }
+
+    /**
+     * Function to get the image of a tag, rehydrating it from its snapshot if not held.
+     *
+     * @param tagID Tag ID as hex string
+     * @return Image of said tag
+     * @throws IllegalArgumentException When tag ID is invalid.
+     */
+    synchronized RT0013snapshot get(String tagID) {
+        RT0013snapshot image = images.get(tagID);
+        if (image != null)
+            return image;
+
+        if (arena.isFull())
+            evict();
+        int slot = arena.allocate();
+        if (root == null)
+            image = RT0013snapshot.inMemory(arena.slab(slot), slot);
+        else {
+            try {
+                image = RT0013snapshot.load(root, tagID, arena.slab(slot), slot);
+            } catch (IOException e) {
+                System.err.println("Register snapshot unavailable, buffering in memory only: " + e.getMessage());
+                image = RT0013snapshot.inMemory(arena.slab(slot), slot);
+            } catch (IllegalArgumentException e) {
+                arena.release(slot);
+                throw e;
+            }
+        }
+        images.put(tagID, image);
+        return image;
+    }
+
+    /**
+     * Saves and releases the least recently used image that is not pinned.
+     *
+     * @throws IllegalStateException If all images are pinned.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, RT0013snapshot>> it = images.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, RT0013snapshot> eldest = it.next();
+            if (pinned.containsKey(eldest.getKey()))
+                continue;
+            eldest.getValue().force();
+            it.remove();
+            arena.release(eldest.getValue().slot());
+            evictions++;
+            return;
+        }
+        throw new IllegalStateException("All " + images.size() + " register images are pinned");
+    }
+
+    /**
+     * Protects an image from eviction, so it can be used without holding this cache. Loads it if needed.
+     * Pins are counted, the image is evictable again once every pin is released.
+     *
+     * @param tagID Tag ID as hex string
+     * @return Image of said tag
+     */
+    synchronized RT0013snapshot pin(String tagID) {
+        RT0013snapshot image = get(tagID);
+        pinned.merge(tagID, 1, Integer::sum);
+        return image;
+    }
+
+    /**
+     * Releases one pin of an image.
+     *
+     * @param tagID Tag ID as hex string
+     */
+    synchronized void unpin(String tagID) {
+        pinned.computeIfPresent(tagID, (key, count) -> (count > 1) ? count - 1 : null);
+    }
+
+    void hit() {
+        hits.increment();
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits.sum(), misses.sum(), evictions, images.size(), arena.reservedBytes());
+    }
+
+    /**
+     * Flushes and releases all images.
+     */
+    public synchronized void clear() {
+        for (RT0013snapshot image : images.values()) {
+            image.force();
+            arena.release(image.slot());
+        }
+        images.clear();
+        pinned.clear();
+    }
+}
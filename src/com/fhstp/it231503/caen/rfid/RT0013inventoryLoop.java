@@ -0,0 +1,144 @@
+package com.fhstp.it231503.caen.rfid;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Continuous inventory of the reader field. Runs inventory rounds at a fixed rate, keeps the presence table of
+ * RT0013manager up to date and publishes arrivals and departures (see TagEvents.inventory()), so a download can start
+ * while a passing tag is still in range.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Each round takes the reader link through RT0013scheduler like any other transaction, so register reads of
+ * locked onto tags are served between rounds. A round overrunning the cadence is followed by the next one right away.
+ */
+public class RT0013inventoryLoop implements AutoCloseable {
+    /**
+     * Inventory settings.
+     *
+     * @param cadence     Time between the starts of two rounds
+     * @param departAfter Time a tag may go unseen before it departs
+     */
+    public record Policy(Duration cadence, Duration departAfter) {
+        /**
+         * Gate reader: a round every 50 ms, departure after 1 s unseen.
+         */
+        public static final Policy DEFAULT = new Policy(Duration.ofMillis(50), Duration.ofSeconds(1));
+
+        /**
+         * @throws IllegalArgumentException If cadence is not positive or departAfter is negative.
+         */
+        public Policy {
+            if (cadence == null || cadence.isNegative() || cadence.isZero())
+                throw new IllegalArgumentException("Cadence must be positive");
+            if (departAfter == null || departAfter.isNegative())
+                throw new IllegalArgumentException("Departure time must not be negative");
+        }
+    }
+
+    /**
+     * Pause after a failed round, so a lost reader does not flood the console.
+     */
+    private static final long FAILURE_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final RT0013manager manager;
+    private final Policy policy;
+    private final LongAdder rounds = new LongAdder();
+    private final LongAdder roundNanos = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private Thread worker;
+    private volatile boolean running = false;
+
+    public RT0013inventoryLoop(RT0013manager manager, Policy policy) {
+        this.manager = manager;
+        this.policy = policy;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Starts the background thread, first round right away.
+     */
+    public synchronized void start() {
+        if (worker != null)
+            return;
+        running = true;
+        worker = new Thread(this::loop, "inventory");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void loop() {
+        long cadence = policy.cadence().toNanos();
+        long departAfter = policy.departAfter().toMillis();
+        long next = System.nanoTime();
+        String lastFailure = null;
+        while (running) {
+            long started = System.nanoTime();
+            try {
+                manager.doInventory(departAfter);
+                rounds.increment();
+                roundNanos.add(System.nanoTime() - started);
+                lastFailure = null;
+                next = Math.max(next + cadence, System.nanoTime());
+            } catch (RuntimeException e) {
+                failures.increment();
+                if (!Objects.equals(e.getMessage(), lastFailure)) // report each failure once until a round succeeds
+                    System.err.println(e.getMessage());
+                lastFailure = e.getMessage();
+                next = System.nanoTime() + FAILURE_BACKOFF_NANOS;
+            }
+            long wait;
+            while (running && (wait = next - System.nanoTime()) > 0)
+                LockSupport.parkNanos(this, wait);
+        }
+    }
+
+    /**
+     * @return Count of completed rounds
+     */
+    public long getRounds() {
+        return rounds.sum();
+    }
+
+    /**
+     * @return Count of failed rounds
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return Mean duration of a round in milliseconds
+     */
+    public double getMeanRoundMillis() {
+        long count = rounds.sum();
+        return (count == 0) ? 0 : (double) roundNanos.sum() / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Stops the background thread after the current round.
+     */
+    @Override
+    public void close() {
+        Thread stopping;
+        synchronized (this) {
+            running = false;
+            stopping = worker;
+            worker = null;
+        }
+        if (stopping == null)
+            return;
+        LockSupport.unpark(stopping);
+        try {
+            stopping.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
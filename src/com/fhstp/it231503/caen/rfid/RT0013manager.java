@@ -1,5 +1,10 @@
 package com.fhstp.it231503.caen.rfid;
 
+import com.caen.RFIDLibrary.CAENRFIDTag;
+import com.fhstp.it231503.caen.archive.ColumnarArchiveWriter;
+import com.fhstp.it231503.caen.event.MeasurementEvent;
+import com.fhstp.it231503.caen.event.RegionUpdate;
+import com.fhstp.it231503.caen.event.TagEvents;
 import com.fhstp.it231503.caen.rfid.RT0013.BIN_SENSOR_TYPES;
 import com.fhstp.it231503.caen.rfid.RT0013.BITS_CTRL;
 import com.fhstp.it231503.caen.rfid.RT0013.BITS_STATUS;
@@ -7,12 +12,17 @@ import com.fhstp.it231503.caen.rfid.RT0013.REV_TYPES;
 import com.fhstp.it231503.caen.util.binSetting;
 import com.fhstp.it231503.caen.util.measurmentPoint;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 import static com.fhstp.it231503.caen.rfid.RT0013rain.*;
 import static com.fhstp.it231503.caen.util.Helper.*;
@@ -26,57 +36,718 @@ import static com.fhstp.it231503.caen.util.Helper.*;
  * @see "CAEN Technical Information"
  */
 public class RT0013manager {
+    /**
+     * Largest region that is fetched as a whole once expired.
+     */
+    private static final int REGION_FETCH_LIMIT = 100;
+    /**
+     * Words per read command. Takes about 0.5 s, mostly tag processing with the link released to other commands.
+     */
+    private static final short CHUNK_WORDS = 100;
     /**
      * Tag accessor variable.
      */
     public RT0013rain myRT0013rain = new RT0013rain();
     /**
-     * Tag register buffer for speedup purposes. Stores wordregisters and their short values
+     * Tag register buffers for speedup purposes, keyed by tag ID. Persisted per tag ID, see RT0013snapshot.
+     */
+    private final RT0013imageCache cache;
+    /**
+     * Tag of the current session and its pinned buffer, replaced as a whole on tag change. The buffer stays pinned as
+     * long as the session is current or an operation started on it is still running (see acquire()).
+     */
+    private final class Session implements AutoCloseable {
+        private final CAENRFIDTag tag;
+        private final byte[] tagID;
+        private final String hexID;
+        private final RT0013snapshot file;
+        /**
+         * Users: one while current, plus one per operation in flight. The pin is released once none remains.
+         */
+        private final AtomicInteger users = new AtomicInteger(1);
+
+        private Session(CAENRFIDTag tag, byte[] tagID, String hexID) {
+            this.tag = tag;
+            this.tagID = tagID;
+            this.hexID = hexID;
+            this.file = cache.pin(hexID);
+        }
+
+        CAENRFIDTag tag() {
+            return tag;
+        }
+
+        byte[] tagID() {
+            return tagID;
+        }
+
+        String hexID() {
+            return hexID;
+        }
+
+        RT0013snapshot file() {
+            return file;
+        }
+
+        /**
+         * @return Whether the session was still in use, thus its buffer pinned
+         */
+        private boolean retain() {
+            int count;
+            do {
+                count = users.get();
+                if (count == 0)
+                    return false;
+            } while (!users.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        @Override
+        public void close() {
+            if (users.decrementAndGet() == 0)
+                cache.unpin(hexID);
+        }
+    }
+
+    private volatile Session session;
+    /**
+     * Tag the operations of the calling thread are bound to, see bound().
+     */
+    private final ThreadLocal<CAENRFIDTag> boundTag = new ThreadLocal<>();
+    /**
+     * Last built image of the current tag, valid while its version matches the buffer.
+     */
+    private volatile RT0013image published;
+    /**
+     * Locks serializing RF fills, one per region. Two threads thus never read the same missing words from the tag.
+     * Locks instead of monitors, as fills wait for RT0013scheduler and a pinned virtual thread would keep its carrier
+     * from the transaction holding the link.
+     */
+    private final ReentrantLock[] fillLocks = new ReentrantLock[RT0013region.values().length];
+    /**
+     * Guards lock-on and the session switch.
+     */
+    private final ReentrantLock sessionLock = new ReentrantLock();
+    /**
+     * Guards starting and stopping the inventory loop.
+     */
+    private final ReentrantLock inventoryLock = new ReentrantLock();
+    /**
+     * Publishers of inventory changes, buffered regions and synced measurements.
+     */
+    private final TagEvents events = new TagEvents();
+    /**
+     * Rows already published by syncLog(), keyed by tag ID and sensor. The first row tells a restarted log apart.
+     */
+    private record Synced(int rows, long firstTime, short firstValue) {
+    }
+
+    private final Map<String, Synced> syncedRows = new ConcurrentHashMap<>();
+    /**
+     * Tag objects of the tags in field, keyed by tag ID, to lock onto without another inventory.
+     */
+    private final Map<String, CAENRFIDTag> inField = new ConcurrentHashMap<>();
+    private volatile RT0013inventoryLoop inventoryLoop;
+
+    public RT0013manager() {
+        this(RT0013imageCache.DEFAULT_BUDGET);
+    }
+
+    /**
+     * @param bufferBudget Off-heap byte budget of buffered register images (one image is about 9 KiB)
+     */
+    public RT0013manager(long bufferBudget) {
+        cache = new RT0013imageCache(RT0013snapshot.DEFAULT_ROOT, bufferBudget);
+        for (int i = 0; i < fillLocks.length; i++)
+            fillLocks[i] = new ReentrantLock();
+    }
+
+    private ReentrantLock fillLock(RT0013region region) {
+        return fillLocks[region.ordinal()];
+    }
+
+    /**
+     * Locks onto a tag and rehydrates its persisted register image. Only volatile regions are revalidated:
+     * live status and dates are re-read, log words already written are kept (log areas are append-only).
+     *
+     * @param tag Tag to communicate with from now on
+     * @implNote Thread-safe
+     */
+    public void bufferLockOn(CAENRFIDTag tag) {
+        sessionLock.lock();
+        try {
+            myRT0013rain.setTag(tag);
+            try (Session current = acquire()) {
+                RT0013snapshot file = current.file();
+
+                short oldSamplesT = file.isValid(REG_SAMPLES_NUM_T) ? file.get(REG_SAMPLES_NUM_T) : -1;
+                short oldSamplesH = file.isValid(REG_SAMPLES_NUM_H) ? file.get(REG_SAMPLES_NUM_H) : -1;
+                fetchRegion(current, RT0013region.LIVE);
+                fetchRegion(current, RT0013region.DATES);
+                revalidateLog(file, RT0013region.LOG_T, oldSamplesT, file.get(REG_SAMPLES_NUM_T));
+                revalidateLog(file, RT0013region.LOG_H, oldSamplesH, file.get(REG_SAMPLES_NUM_H));
+                file.force();
+            }
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    /**
+     * Keeps the written part of a log area. A shrinking samples number means the log was restarted.
+     */
+    private static void revalidateLog(RT0013snapshot file, RT0013region region, short oldSamples, short newSamples) {
+        if (oldSamples < 0 || newSamples < oldSamples)
+            file.invalidate(region);
+        else
+            trimLog(file, region);
+    }
+
+    /**
+     * Drops the words of a log area from the first unwritten (or unknown) one on, as only these can have changed.
+     */
+    private static void trimLog(RT0013snapshot file, RT0013region region) {
+        file.beginWrite();
+        short wordaddress = region.first();
+        while (wordaddress <= region.last() && file.isValid(wordaddress) && file.get(wordaddress) != RT0013decoder.EMPTY_MARKER)
+            wordaddress++;
+        for (; wordaddress <= region.last(); wordaddress++)
+            file.invalidate(wordaddress);
+        file.stamp(region, System.currentTimeMillis());
+        file.endWrite();
+    }
+
+    /**
+     * Re-reads the live status words (status, alarms, counters, last samples and samples number) only.
+     *
+     * @implNote Thread-safe
+     */
+    public void bufferRefreshStatus() {
+        bufferFetchRegion(RT0013region.LIVE);
+    }
+
+    /**
+     * Drops a single region, e.g. after an operation known to affect it. Other regions stay cached.
+     *
+     * @param region Region to drop
+     * @implNote Thread-safe
      */
-    private final Map<Short, Short> buffer = new ConcurrentHashMap<>();
+    public void bufferInvalidate(RT0013region region) {
+        try (Session current = acquire()) {
+            current.file().invalidate(region);
+        }
+    }
 
     /**
-     * Fetches all registers and updates the buffer.
+     * Drops a single word, e.g. a bit the tag clears by itself.
      *
+     * @param wordaddress Address of tag register
      * @implNote Thread-safe
      */
-    public synchronized void bufferFetchRegisters() {
+    public void bufferInvalidate(short wordaddress) {
+        try (Session current = acquire()) {
+            current.file().invalidate(wordaddress);
+        }
+    }
+
+    /**
+     * Drops everything the tag changes by itself after a configuration step: live status and dates.
+     * Log areas only lose their unwritten tail. Configuration and user area stay cached.
+     *
+     * @implNote Thread-safe
+     */
+    public void bufferInvalidateVolatile() {
+        try (Session current = acquire()) {
+            RT0013snapshot file = current.file();
+            file.beginWrite();
+            file.invalidate(RT0013region.LIVE);
+            file.invalidate(RT0013region.DATES);
+            trimLog(file, RT0013region.LOG_T);
+            trimLog(file, RT0013region.LOG_H);
+            file.endWrite();
+        }
+    }
+
+    /**
+     * Reads a range of a tag into a new array, without touching the buffer.
+     * Ranges of more than one chunk are scheduled as BULK (unless INTERACTIVE), every chunk is a command of its own,
+     * so more urgent commands are served between chunks.
+     *
+     * @param tag      Tag to read from
+     * @param first    First wordaddress
+     * @param last     Last wordaddress
+     * @param progress Whether to print progress
+     * @return Words, index 0 equals first
+     */
+    private short[] readRange(CAENRFIDTag tag, short first, short last, boolean progress) {
+        RT0013scheduler.Command command = RT0013scheduler.current();
+        if (last - first + 1 <= CHUNK_WORDS || command.priority() == RT0013scheduler.Priority.INTERACTIVE)
+            return readChunks(tag, first, last, progress);
+        try {
+            return RT0013scheduler.within(command.as(RT0013scheduler.Priority.BULK), () -> readChunks(tag, first, last, progress));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private short[] readChunks(CAENRFIDTag tag, short first, short last, boolean progress) {
+        short[] words = new short[last - first + 1];
         short words2read;
         short[] datawordsToRead;
-        for (short wordaddress = REG_START; wordaddress <= REG_END; wordaddress += 100) {
-            words2read = (wordaddress + 100 > REG_END) ? (short) (REG_END - wordaddress + 1) : (short) 100;
-            datawordsToRead = bytesToShorts(myRT0013rain.readTag(wordaddress, words2read)); // Reading tag and converting bytes to shorts
-            for (short x = 0; x < words2read; x++) {
-                buffer.put((short) (wordaddress + x), datawordsToRead[x]);
-                //System.out.println("Buffering register 0x" + shortToHexString((short) (wordaddress + x)) + ": 0x" + shortToHexString(datawordsToRead[x]));
-                progressPercentage(wordaddress + x, REG_END);
+        for (short wordaddress = first; wordaddress <= last; wordaddress += CHUNK_WORDS) {
+            words2read = (wordaddress + CHUNK_WORDS > last) ? (short) (last - wordaddress + 1) : CHUNK_WORDS;
+            datawordsToRead = bytesToShorts(myRT0013rain.readTag(tag, wordaddress, words2read)); // Reading tag and converting bytes to shorts
+            System.arraycopy(datawordsToRead, 0, words, wordaddress - first, words2read);
+            if (progress)
+                progressPercentage(wordaddress + words2read - 1, last);
+        }
+        return words;
+    }
+
+    private void fetchRegion(Session current, RT0013region region) {
+        short[] words = readRange(current.tag(), region.first(), region.last(), false);
+        store(current.file(), region.first(), words, new RT0013region[]{region});
+        updated(current, region);
+    }
+
+    /**
+     * Publishes that a region of a tag was buffered.
+     */
+    private void updated(Session current, RT0013region region) {
+        if (events.regions().hasSubscribers())
+            events.regions().publish(new RegionUpdate(current.hexID(), region, System.currentTimeMillis()));
+    }
+
+    /**
+     * Stores freshly read words as one atomic batch and stamps their regions.
+     */
+    private static void store(RT0013snapshot file, short first, short[] words, RT0013region[] regions) {
+        file.beginWrite();
+        for (int x = 0; x < words.length; x++)
+            file.put((short) (first + x), words[x]);
+        long now = System.currentTimeMillis();
+        for (RT0013region region : regions)
+            file.stamp(region, now);
+        file.endWrite();
+    }
+
+    /**
+     * Reads a whole region in one go. The buffer is not locked during the RF transfer.
+     *
+     * @param region Region to fetch
+     * @implNote Thread-safe
+     */
+    public void bufferFetchRegion(RT0013region region) {
+        try (Session current = acquire()) {
+            ReentrantLock lock = fillLock(region);
+            lock.lock();
+            try {
+                fetchRegion(current, region);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Reads the words of a sensor log written since the last visit. The log area is filled linearly, so only the words
+     * from the first unknown one up to the end given by the samples number are read.
+     *
+     * @param sensor Type of Sensor according to enum
+     * @throws IllegalArgumentException If sensor doesnt exist.
+     * @implNote Thread-safe. As long as the bin enabling is not buffered, rows are assumed to hold timestamp and sample.
+     */
+    public void bufferFetchLogTail(BIN_SENSOR_TYPES sensor) {
+        RT0013region region = switch (sensor) {
+            case TEMPERATURE -> RT0013region.LOG_T;
+            case HUMIDITY -> RT0013region.LOG_H;
+            case null, default -> throw new IllegalArgumentException("Unknown sensorType: " + sensor);
+        };
+        try (Session current = acquire()) {
+            ReentrantLock lock = fillLock(region);
+            lock.lock();
+            try {
+                fillLogTail(current, region, sensor);
+            } finally {
+                lock.unlock();
             }
         }
     }
 
     /**
-     * Resets buffer to free up memory. Also useful in case of suspicion that tag will have different values.
+     * Reads the unknown tail of a log area up to the end given by the samples number, in chunks. Caller holds the
+     * region's fill lock.
+     */
+    private void fillLogTail(Session current, RT0013region region, BIN_SENSOR_TYPES sensor) {
+        RT0013snapshot file = current.file();
+        short samplesNum = getSamplesNum(sensor);
+        short mode = (file.isValid(REG_BIN_ENA_TIME_STORE) && file.isValid(REG_BIN_ENA_SAMPLE_STORE))
+                ? RT0013decoder.logMode(sensor, file.get(REG_BIN_ENA_TIME_STORE), file.get(REG_BIN_ENA_SAMPLE_STORE))
+                : 3;
+        short last = (short) (region.first() + Math.min(region.words(), RT0013decoder.logWords(samplesNum, mode)) - 1);
+
+        short first = region.first();
+        while (first <= last && file.isValid(first))
+            first++;
+        if (first > last)
+            return;
+        store(file, first, readRange(current.tag(), first, last, false), new RT0013region[0]);
+        trimLog(file, region); // keeps what was read, stamps the region
+        file.force();
+        updated(current, region);
+    }
+
+    /**
+     * @return Sensor whose samples are logged in said region, null if none
+     */
+    private static BIN_SENSOR_TYPES logSensor(RT0013region region) {
+        return switch (region) {
+            case LOG_T -> BIN_SENSOR_TYPES.TEMPERATURE;
+            case LOG_H -> BIN_SENSOR_TYPES.HUMIDITY;
+            case null, default -> null;
+        };
+    }
+
+    /**
+     * Fetches the registers of the current tag most valuable first, for tags which may leave the field any moment:
+     * the new log tails, then the configuration needed to decode them, then identity and user area.
+     * Live status and dates are read on lock-on already, regions still fresh in the buffer are skipped.
+     *
+     * @param staticToo Whether identity and user area are fetched too
+     * @implNote Thread-safe
+     */
+    public void bufferFetchValueFirst(boolean staticToo) {
+        bufferFetchLogTail(BIN_SENSOR_TYPES.TEMPERATURE);
+        bufferFetchLogTail(BIN_SENSOR_TYPES.HUMIDITY);
+        bufferEnsureRegion(RT0013region.CONFIG);
+        if (!staticToo)
+            return;
+        bufferEnsureRegion(RT0013region.USER);
+        bufferEnsureRegion(RT0013region.IDENTITY);
+    }
+
+    /**
+     * Fetches a region unless all of its words are fresh in the buffer.
      *
+     * @param region Region to fetch
      * @implNote Thread-safe
      */
-    public synchronized void bufferReset() {
-        buffer.clear();
+    public void bufferEnsureRegion(RT0013region region) {
+        RT0013image image = bufferSnapshot();
+        long now = System.currentTimeMillis();
+        for (short wordaddress = region.first(); wordaddress <= region.last(); wordaddress++)
+            if (!image.isFresh(wordaddress, now)) {
+                bufferFetchRegion(region);
+                return;
+            }
     }
 
     /**
-     * Retrieves the value of a register from the buffer
+     * Fetches all registers into a new image and stores it at once. Readers keep seeing the previous image
+     * (not a half-refreshed one) and are not blocked meanwhile.
+     *
+     * @implNote Thread-safe
+     */
+    public void bufferFetchRegisters() {
+        try (Session current = acquire()) {
+            short[] words = readRange(current.tag(), REG_START, REG_END, true);
+            store(current.file(), REG_START, words, RT0013region.values());
+            current.file().force();
+            for (RT0013region region : RT0013region.values())
+                updated(current, region);
+        }
+    }
+
+    /**
+     * Resets the whole buffer. Only needed when the tag itself was reset, prefer targeted invalidation otherwise.
+     *
+     * @implNote Thread-safe
+     */
+    public void bufferReset() {
+        try (Session current = acquire()) {
+            current.file().invalidateAll();
+        }
+    }
+
+    /**
+     * Flushes and releases the buffers of all tags.
+     *
+     * @implNote Thread-safe
+     */
+    public void bufferClose() {
+        sessionLock.lock();
+        try {
+            cache.clear();
+            session = null;
+            published = null;
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    public TagEvents getEvents() {
+        return events;
+    }
+
+    /**
+     * Scans for tags once and publishes arrivals and departures compared to the previous scan. While the inventory
+     * loop runs, tags missed by this scan depart only after the loop's departure time, as they would in the loop.
+     *
+     * @return Tags found, may be empty
+     * @throws RuntimeException Fails in case of critical API error.
+     */
+    public CAENRFIDTag[] doInventory() {
+        RT0013inventoryLoop loop = inventoryLoop;
+        return doInventory((loop != null) ? loop.getPolicy().departAfter().toMillis() : 0);
+    }
+
+    /**
+     * Scans for tags, records them in the presence table and publishes arrivals and departures. Command queues of
+     * departed tags and of tags idle for RT0013rain.SESSION_IDLE are closed.
+     *
+     * @param departAfter Milliseconds a tag may go unseen before it departs
+     * @return Tags found, may be empty
+     * @throws RuntimeException Fails in case of critical API error.
+     */
+    CAENRFIDTag[] doInventory(long departAfter) {
+        CAENRFIDTag[] tags = myRT0013rain.doInventory(true);
+        if (tags == null)
+            tags = new CAENRFIDTag[0];
+        long now = System.currentTimeMillis();
+        Map<String, Short> seen = new LinkedHashMap<>();
+        for (CAENRFIDTag tag : tags) {
+            String tagID = bytesToHexstring(tag.GetId());
+            seen.put(tagID, tag.GetRSSI());
+            inField.put(tagID, tag);
+        }
+        for (String tagID : events.inventoryRound(seen, now, departAfter)) {
+            inField.remove(tagID);
+            myRT0013rain.closeSession(tagID);
+        }
+        myRT0013rain.closeIdleSessions(SESSION_IDLE);
+        return tags;
+    }
+
+    /**
+     * @param tagID Tag ID as hex string
+     * @return Tag object of the latest sighting, null if not in field
+     */
+    public CAENRFIDTag getFieldTag(String tagID) {
+        return inField.get(tagID);
+    }
+
+    /**
+     * Starts scanning for tags continuously, replacing a running loop.
+     *
+     * @param policy Cadence and departure time
+     */
+    public void startInventory(RT0013inventoryLoop.Policy policy) {
+        inventoryLock.lock();
+        try {
+            stopInventory();
+            inventoryLoop = new RT0013inventoryLoop(this, policy);
+            inventoryLoop.start();
+        } finally {
+            inventoryLock.unlock();
+        }
+    }
+
+    /**
+     * Stops continuous scanning after the current round.
+     */
+    public void stopInventory() {
+        inventoryLock.lock();
+        try {
+            if (inventoryLoop == null)
+                return;
+            inventoryLoop.close();
+            inventoryLoop = null;
+        } finally {
+            inventoryLock.unlock();
+        }
+    }
+
+    public RT0013inventoryLoop getInventoryLoop() {
+        return inventoryLoop;
+    }
+
+    /**
+     * @return Hit/miss statistics of the register buffers
+     */
+    public RT0013imageCache.Stats getBufferStats() {
+        return cache.getStats();
+    }
+
+    /**
+     * Gets a consistent image of the current tag's buffer. The last image is reused while the buffer is unchanged.
+     *
+     * @return Immutable image
+     * @implNote Thread-safe and lock-free
+     */
+    public RT0013image bufferSnapshot() {
+        try (Session current = acquire()) {
+            RT0013image image = published;
+            if (image != null && image.isOf(current.tagID()) && image.getVersion() == current.file().changes())
+                return image;
+            image = current.file().toImage(current.tagID());
+            published = image;
+            return image;
+        }
+    }
+
+    /**
+     * Function to run a sequence of operations on one tag. Each buffer operation checks the tag locked onto, so a
+     * lock-on to another tag meanwhile fails the rest of the sequence instead of sending it to the other tag.
+     *
+     * @param tag        Tag the operations are meant for
+     * @param operations Operations to run in the calling thread
+     * @param <T>        Type of result
+     * @return Result of operations
+     * @throws IllegalStateException If another tag is (or gets) locked onto.
+     */
+    <T> T bound(CAENRFIDTag tag, Supplier<T> operations) {
+        CAENRFIDTag outer = boundTag.get();
+        boundTag.set(tag);
+        try {
+            return operations.get();
+        } finally {
+            if (outer == null)
+                boundTag.remove();
+            else
+                boundTag.set(outer);
+        }
+    }
+
+    /**
+     * Function to start an operation on the current session. Its buffer stays pinned until the operation closes the
+     * session, even if another tag is locked onto meanwhile.
+     *
+     * @return Session to close when done
+     */
+    private Session acquire() {
+        while (true) {
+            Session current = session();
+            if (current.retain())
+                return current;
+        }
+    }
+
+    /**
+     * Selects the buffer of the tag currently set in RT0013rain, so switching tags never serves another tag's words.
+     * The buffer stays pinned in the cache while its tag is current.
+     *
+     * @throws IllegalStateException If the calling thread is bound to another tag (see bound()).
+     */
+    private Session session() {
+        CAENRFIDTag tag = myRT0013rain.getTag();
+        CAENRFIDTag bound = boundTag.get();
+        if (bound != null && bound != tag)
+            throw new IllegalStateException("Tag changed during operation");
+        Session current = session;
+        if (current != null && current.tag() == tag)
+            return current;
+        sessionLock.lock();
+        try {
+            current = session;
+            if (current != null && current.tag() == tag)
+                return current;
+            byte[] tagID = tag.GetId().clone();
+            String hexID = bytesToHexstring(tagID);
+            Session previous = current;
+            current = new Session(tag, tagID, hexID);
+            session = current;
+            if (previous != null)
+                previous.close(); // unpinned once its last operation is done
+            return current;
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the value of a register from the buffer without locking if valid. Otherwise, expired small regions are
+     * fetched as a whole and expired log areas only lose their unwritten tail; concurrent misses of the same region
+     * wait for a single RF read. A missing log word fetches the whole log tail in chunks (see bufferFetchLogTail()),
+     * never word by word; words past the end given by the samples number read as RT0013decoder.EMPTY_MARKER.
      *
      * @param wordaddress Address of tag register
      * @return Buffered or retrieved register value
      * @implNote Thread-safe
      */
-    public synchronized short bufferGetValue(short wordaddress) {
-        Short value = buffer.get(wordaddress);
-        if (value == null) {
-            value = bytesToShort(myRT0013rain.readTag(wordaddress, (short) 1));
-            buffer.put(wordaddress, value);
+    public short bufferGetValue(short wordaddress) {
+        try (Session current = acquire()) {
+            RT0013snapshot file = current.file();
+            RT0013region region = RT0013region.of(wordaddress);
+            if (region.isFresh(file.fetched(region), System.currentTimeMillis()) && file.isValid(wordaddress)) {
+                cache.hit();
+                return file.get(wordaddress);
+            }
+            ReentrantLock lock = fillLock(region);
+            lock.lock();
+            try {
+                if (!region.isFresh(file.fetched(region), System.currentTimeMillis())) {
+                    if (region.words() <= REGION_FETCH_LIMIT) {
+                        fetchRegion(current, region); // one read instead of word by word
+                        cache.miss();
+                        return file.get(wordaddress);
+                    }
+                    trimLog(file, region);
+                }
+                if (file.isValid(wordaddress)) {
+                    cache.hit();
+                    return file.get(wordaddress);
+                }
+                cache.miss();
+                BIN_SENSOR_TYPES sensor = logSensor(region);
+                if (sensor != null) {
+                    fillLogTail(current, region, sensor);
+                    return file.isValid(wordaddress) ? file.get(wordaddress) : RT0013decoder.EMPTY_MARKER;
+                }
+                short value = bytesToShort(myRT0013rain.readTag(current.tag(), wordaddress, (short) 1));
+                file.put(wordaddress, value);
+                return value;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Reads consecutive registers from one consistent image. Log tails missing there are fetched once per log area in
+     * chunks, other missing words are retrieved by bufferGetValue().
+     *
+     * @param first First wordaddress
+     * @param words Number of words
+     * @return Raw data, index 0 equals first
+     * @implNote Thread-safe
+     */
+    public short[] bufferGetRange(short first, int words) {
+        RT0013image image = bufferSnapshot();
+        long now = System.currentTimeMillis();
+        EnumSet<RT0013region> tailed = EnumSet.noneOf(RT0013region.class);
+        short[] data = new short[words];
+        for (int i = 0; i < words; i++) {
+            short wordaddress = (short) (first + i);
+            if (image.isFresh(wordaddress, now)) {
+                data[i] = image.get(wordaddress);
+                continue;
+            }
+            RT0013region region = RT0013region.of(wordaddress);
+            BIN_SENSOR_TYPES sensor = logSensor(region);
+            if (sensor == null) {
+                data[i] = bufferGetValue(wordaddress);
+                continue;
+            }
+            if (tailed.add(region)) {
+                bufferGetValue(region.first()); // trims an expired area, fetches its tail if unknown
+                bufferFetchLogTail(sensor);
+                image = bufferSnapshot();
+            }
+            data[i] = image.isValid(wordaddress) ? image.get(wordaddress) : RT0013decoder.EMPTY_MARKER;
         }
-        return value;
+        return data;
     }
 
     /**
@@ -86,19 +757,66 @@ public class RT0013manager {
      * @param newValue    Value to write to buffer and tag.
      * @implNote Thread-safe
      */
-    public synchronized void bufferUpdateValue(short wordaddress, short newValue) {
-        myRT0013rain.writeTag(wordaddress, new short[]{newValue});
-        try {
-            Thread.sleep(1000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    public void bufferUpdateValue(short wordaddress, short newValue) {
+        try (Session current = acquire()) {
+            ReentrantLock lock = fillLock(RT0013region.of(wordaddress));
+            lock.lock();
+            try {
+                short currentState = myRT0013rain.inSession(current.tag(), () -> { // no other command to this tag in between
+                    myRT0013rain.writeTag(current.tag(), wordaddress, new short[]{newValue});
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    return bytesToShort(myRT0013rain.readTag(current.tag(), wordaddress, (short) 1));
+                });
+                if (currentState != newValue)
+                    System.err.println("Error in updating tag register: 0x" + shortToHexString(wordaddress) + " to 0x" + shortToHexString(newValue) + " - still is: 0x" + shortToHexString(currentState));
+
+                current.file().put(wordaddress, currentState); // Update Buffer
+            } finally {
+                lock.unlock();
+            }
+            updated(current, RT0013region.of(wordaddress));
         }
+    }
 
-        short currentState = bytesToShort(myRT0013rain.readTag(wordaddress, (short) 1));
-        if (currentState != newValue)
-            System.err.println("Error in updating tag register: 0x" + shortToHexString(wordaddress) + " to 0x" + shortToHexString(newValue) + " - still is: 0x" + shortToHexString(currentState));
-
-        buffer.put(wordaddress, currentState); // Update Buffer
+    /**
+     * Writes consecutive registers in one transaction and updates the buffer with what the tag reports back.
+     *
+     * @param first Address of first tag register
+     * @param words Values to write
+     * @return Whether all words read back as written
+     * @implNote Thread-safe
+     */
+    public boolean bufferUpdateRange(short first, short[] words) {
+        try (Session current = acquire()) {
+            short[] currentState = myRT0013rain.inSession(current.tag(), () -> {
+                myRT0013rain.writeTag(current.tag(), first, words);
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                return bytesToShorts(myRT0013rain.readTag(current.tag(), first, (short) words.length));
+            });
+            boolean result = true;
+            RT0013snapshot file = current.file();
+            file.beginWrite();
+            for (int i = 0; i < words.length; i++) {
+                if (currentState[i] != words[i]) {
+                    System.err.println("Error in updating tag register: 0x" + shortToHexString((short) (first + i)) + " to 0x" + shortToHexString(words[i]) + " - still is: 0x" + shortToHexString(currentState[i]));
+                    result = false;
+                }
+                file.put((short) (first + i), currentState[i]);
+            }
+            file.endWrite();
+            for (RT0013region region : RT0013region.values())
+                if (region.first() <= first + words.length - 1 && region.last() >= first)
+                    updated(current, region);
+            return result;
+        }
     }
 
     /**
@@ -308,8 +1026,9 @@ public class RT0013manager {
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
-            bufferReset();
+            bufferInvalidate(REG_CONTROL); // RST is cleared by the tag
             if (!getTagControl(BITS_CTRL.RST)) {
+                bufferReset();
                 result = true;
                 break;
             }
@@ -1063,10 +1782,7 @@ public class RT0013manager {
      * @return Raw data
      */
     public short[] getUserArea() {
-        short[] dataToRead = new short[REG_USER_AREA_END - REG_USER_AREA_START + 1];
-        for (int i = 0; i < dataToRead.length; i++)
-            dataToRead[i] = bufferGetValue((short) (REG_USER_AREA_START + i));
-        return dataToRead;
+        return bufferGetRange(REG_USER_AREA_START, REG_USER_AREA_END - REG_USER_AREA_START + 1);
     }
 
     /**
@@ -1145,10 +1861,7 @@ public class RT0013manager {
             case HUMIDITY -> REG_LOG_AREA_H_END - REG_LOG_AREA_H_START + 1;
             case null, default -> throw new IllegalArgumentException("Unknown sensorType: " + sensorType);
         };
-        short[] dataToRead = new short[len];
-        for (int i = 0; i < dataToRead.length; i++)
-            dataToRead[i] = bufferGetValue((short) (offset + i));
-        return dataToRead;
+        return bufferGetRange(offset, len);
     }
 
     /**
@@ -1179,6 +1892,16 @@ public class RT0013manager {
 
     /////////////////////// EXPORT FUNCTIONS //////////////////////
 
+    /**
+     * Gets a full register image (REG_START...REG_END) from buffer (=tag).
+     *
+     * @return Raw data, index equals wordaddress
+     * @implNote Fetch registers first, otherwise missing words are read one by one.
+     */
+    public short[] getRegisterImage() {
+        return bufferGetRange(REG_START, RT0013decoder.IMAGE_WORDS);
+    }
+
     /**
      * Function to parse log data by sensor directly into a list of measurement points.
      *
@@ -1186,89 +1909,101 @@ public class RT0013manager {
      * @return List of measurement points
      * @throws IllegalArgumentException If sensor doesnt exist.
      * @throws RuntimeException         If errors occur at data translation.
-     * @return List of measurement points
+     * @see RT0013decoder
      */
     public List<measurmentPoint> parseLogData(RT0013.BIN_SENSOR_TYPES sensor) {
         if (sensor == null || (sensor != BIN_SENSOR_TYPES.TEMPERATURE && sensor != BIN_SENSOR_TYPES.HUMIDITY))
             throw new IllegalArgumentException("Unknown sensorType: " + sensor);
-        if (getSamplesNum(sensor) <= 0) {
+        short samplesNum = getSamplesNum(sensor);
+        if (samplesNum <= 0) {
             throw new RuntimeException("Samples number must be greater than zero!");
         }
 
         // Get context
-        short mode = 0;
-        for (short i = 0; i <= 5; i++)
-            if (getBinEnX(i, BIN_EN_TYPES.TIME_STORE, sensor))
-                mode = (short) setBit(mode, 0, true);
-
-        for (short i = 0; i <= 5; i++)
-            if (getBinEnX(i, BIN_EN_TYPES.SAMPLE_STORE, sensor))
-                mode = (short) setBit(mode, 1, true);
+        short mode = RT0013decoder.logMode(sensor, bufferGetValue(REG_BIN_ENA_TIME_STORE), bufferGetValue(REG_BIN_ENA_SAMPLE_STORE));
 
-        // Interpret data
-        short[] logArea = getLogArea(sensor);
+        return RT0013decoder.parseLogData(sensor, samplesNum, mode, getLogArea(sensor));
+    }
 
-        short emptyMarker = (short) 0xFFFF;
-        short valueBufferSh = emptyMarker;
-        short[] dateBuffer = new short[2];
+    /**
+     * Function to write the log of a sensor into a columnar archive file, streamed straight from the decoder.
+     *
+     * @param sensor Type of Sensor according to enum
+     * @param file   Target archive file
+     * @return Count of archived points (rows without timestamp are skipped)
+     * @throws IllegalArgumentException If sensor doesnt exist.
+     * @throws RuntimeException         If samples number is invalid.
+     * @throws IOException              If writing fails.
+     * @see ColumnarArchiveWriter
+     */
+    public long archiveLogData(RT0013.BIN_SENSOR_TYPES sensor, Path file) throws IOException {
+        if (sensor == null || (sensor != BIN_SENSOR_TYPES.TEMPERATURE && sensor != BIN_SENSOR_TYPES.HUMIDITY))
+            throw new IllegalArgumentException("Unknown sensorType: " + sensor);
+        short samplesNum = getSamplesNum(sensor);
+        if (samplesNum <= 0) {
+            throw new RuntimeException("Samples number must be greater than zero!");
+        }
+        short mode = RT0013decoder.logMode(sensor, bufferGetValue(REG_BIN_ENA_TIME_STORE), bufferGetValue(REG_BIN_ENA_SAMPLE_STORE));
 
-        List<measurmentPoint> dataTable = new ArrayList<>();
-        dataTable.add(new measurmentPoint(null, emptyMarker));
+        try (ColumnarArchiveWriter writer = new ColumnarArchiveWriter(file, getTagID(false), sensor)) {
+            RT0013decoder.streamLogData(sensor, samplesNum, mode, getLogArea(sensor), writer::writeRow);
+            return writer.getRows();
+        }
+    }
 
-        for (int ctr = 0; (ctr < logArea.length && dataTable.size() < getSamplesNum(sensor)); ctr++) {
-            if (logArea[ctr] == emptyMarker) // check if early end of log area
-                break;
+    /**
+     * Function to publish the log rows of a sensor not published yet for this tag (see TagEvents.measurements()).
+     * Only the unwritten tail of the log area is read from the tag again (see bufferFetchLogTail()).
+     *
+     * @param sensor Type of Sensor according to enum
+     * @return Count of newly published rows
+     * @throws IllegalArgumentException If sensor doesnt exist.
+     */
+    public int syncLog(BIN_SENSOR_TYPES sensor) {
+        bufferFetchLogTail(sensor);
+        bufferEnsureRegion(RT0013region.CONFIG);
+        RT0013image image = bufferSnapshot();
+        if (getSamplesNum(sensor) <= 0)
+            return 0;
+        long[] times = new long[RT0013region.LOG_T.words()]; // both log areas are equally long, a row takes a word at least
+        short[] values = new short[times.length];
+        int rows;
+        try {
+            rows = RT0013decoder.streamLogData(sensor, image.toArray(), new RT0013decoder.LogSink() {
+                private int row;
 
-            // act according to cases
-            switch (mode) {
-                case 0 -> throw new RuntimeException("Nothing to export as config invalid!");
-                case 1 -> {
-                    // Get from buffer
-                    dateBuffer[1] = (ctr % 2 == 0) ? logArea[ctr] : dateBuffer[1];
-                    dateBuffer[0] = (ctr % 2 == 1) ? logArea[ctr] : dateBuffer[0];
-
-                    // Conditionally put to List and add up
-                    if (dateBuffer[0] != emptyMarker && dateBuffer[1] != emptyMarker)
-                        dataTable.getLast().setDate(shortsToDate(dateBuffer));
-                    if (dataTable.getLast().getDate() != null)
-                        dataTable.add(new measurmentPoint(null, emptyMarker));
-                }
-                case 2 -> {
-                    // Get from buffer
-                    valueBufferSh = logArea[ctr];
-
-                    // Conditionally put to List and add up
-                    if (valueBufferSh != emptyMarker && isValidValue(sensor, fixedpointToFloat(sensor, valueBufferSh)))
-                        dataTable.getLast().setValue(fixedpointToFloat(sensor, valueBufferSh));
-                    if (dataTable.getLast().getValue() != emptyMarker)
-                        dataTable.add(new measurmentPoint(null, emptyMarker));
+                @Override
+                public void accept(long epochSeconds, short fixedPoint) {
+                    times[row] = epochSeconds;
+                    values[row++] = fixedPoint;
                 }
-                case 3 -> {
-                    // Get from buffer
-                    valueBufferSh = (ctr % 3 == 0) ? logArea[ctr] : valueBufferSh;
-                    dateBuffer[1] = (ctr % 3 == 1) ? logArea[ctr] : dateBuffer[1];
-                    dateBuffer[0] = (ctr % 3 == 2) ? logArea[ctr] : dateBuffer[0];
-
-                    // Conditionally put to List and add up
-                    if (dateBuffer[0] != emptyMarker && dateBuffer[1] != emptyMarker)
-                        dataTable.getLast().setDate(shortsToDate(dateBuffer));
-                    if (valueBufferSh != emptyMarker && isValidValue(sensor, fixedpointToFloat(sensor, valueBufferSh)))
-                        dataTable.getLast().setValue(fixedpointToFloat(sensor, valueBufferSh));
-                    if (dataTable.getLast().getDate() != null && dataTable.getLast().getValue() != emptyMarker)
-                        dataTable.add(new measurmentPoint(null, emptyMarker));
-                }
-                default -> throw new RuntimeException("Unknown mode: " + mode);
-            }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e); // sink does not throw
         }
+        return publishRows(image.getTagID(), sensor, times, values, rows);
+    }
 
-        // Sort table by timestamp if present
-        if (getBit(mode, 0))
-            dataTable.sort(
-                    Comparator.comparing(measurmentPoint::getDate, Comparator.nullsLast(Comparator.naturalOrder()))
-            );
-        dataTable.removeLast();
-
-        return dataTable;
+    /**
+     * Publishes the decoded log rows of a tag not published yet. A restarted log (fewer rows or another first row than
+     * last time) is published from its start.
+     *
+     * @param tagID  Tag ID as hex string
+     * @param sensor Type of Sensor
+     * @param times  Timestamps of rows in log order
+     * @param values Values of rows in log order
+     * @param rows   Count of rows
+     * @return Count of newly published rows
+     */
+    int publishRows(String tagID, BIN_SENSOR_TYPES sensor, long[] times, short[] values, int rows) {
+        String key = tagID + "/" + sensor;
+        Synced done = syncedRows.get(key);
+        int from = 0;
+        if (done != null && rows >= done.rows() && (rows == 0 || (times[0] == done.firstTime() && values[0] == done.firstValue())))
+            from = done.rows();
+        for (int i = from; i < rows; i++)
+            events.measurements().publish(new MeasurementEvent(tagID, sensor, times[i], values[i]));
+        syncedRows.put(key, (rows == 0) ? new Synced(0, RT0013decoder.LogSink.NO_TIME, RT0013decoder.EMPTY_MARKER) : new Synced(rows, times[0], values[0]));
+        return rows - from;
     }
 }
-
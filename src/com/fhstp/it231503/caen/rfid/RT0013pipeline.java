@@ -0,0 +1,460 @@
+package com.fhstp.it231503.caen.rfid;
+
+import com.caen.RFIDLibrary.CAENRFIDTag;
+import com.fhstp.it231503.caen.archive.MeasurementStore;
+import com.fhstp.it231503.caen.event.InventoryEvent;
+import com.fhstp.it231503.caen.event.PresenceTable;
+import com.fhstp.it231503.caen.event.TagPresence;
+import com.fhstp.it231503.caen.export.ExportFormat;
+import com.fhstp.it231503.caen.export.ExportOptions;
+import com.fhstp.it231503.caen.rfid.RT0013.BIN_SENSOR_TYPES;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Download pipeline from inventory to disk. Tags arriving in the field (see RT0013inventoryLoop) pass four stages,
+ * each with its own workers, connected by bounded queues:
+ * <ol>
+ *     <li>inventory: arrivals are queued for download, each tag once while it stays in field</li>
+ *     <li>fetch: lock-on and register read, one worker as the reader has a single RF link. Tags expected to leave
+ *     the field first are fetched first, each starting with its new log tail</li>
+ *     <li>decode: both sensor logs of the register image, one worker per core. New rows are published as
+ *     measurement events</li>
+ *     <li>persist: append to the MeasurementStore and/or export files</li>
+ * </ol>
+ * Decoding and writing of one tag run while the next tag is fetched, so the RF link does not wait for CPU or disk.
+ * A full queue blocks the stage in front of it; arrivals exceeding the download queue are dropped and reported.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Thread-safe. The pipeline drives the register buffer of its manager, other lock-ons meanwhile are not
+ * supported. close() completes all queued work before returning.
+ */
+public class RT0013pipeline implements AutoCloseable {
+    /**
+     * Pipeline settings.
+     *
+     * @param queueCapacity Capacity of each queue between stages
+     * @param decoders      Count of decode workers
+     * @param store         Store to append measurements to, null for none
+     * @param format        Export format, null for no export
+     * @param options       Export options
+     */
+    public record Options(int queueCapacity, int decoders, MeasurementStore store, ExportFormat format, ExportOptions options) {
+        /**
+         * @throws IllegalArgumentException If queueCapacity or decoders is not positive.
+         */
+        public Options {
+            if (queueCapacity <= 0 || decoders <= 0)
+                throw new IllegalArgumentException("Queue capacity and decoders must be positive");
+            if (options == null)
+                options = ExportOptions.DEFAULT;
+        }
+
+        /**
+         * Store only, 16 tags per queue, one decoder per core.
+         *
+         * @param store Store to append measurements to
+         * @return Options
+         */
+        public static Options storing(MeasurementStore store) {
+            return new Options(16, Runtime.getRuntime().availableProcessors(), store, null, null);
+        }
+    }
+
+    /**
+     * Counters of a stage.
+     *
+     * @param name      Name of stage
+     * @param queued    Items waiting in front of the stage
+     * @param done      Items completed
+     * @param failed    Items failed
+     * @param busyNanos Time the workers spent on items
+     */
+    public record StageStats(String name, int queued, long done, long failed, long busyNanos) {
+        @Override
+        public String toString() {
+            return name + ": " + done + " done, " + failed + " failed, " + queued + " queued, busy " + busyNanos / 1_000_000 + " ms";
+        }
+    }
+
+    /**
+     * Register image of a fetched tag.
+     */
+    private record Fetched(String tagID, short[] image) {
+        @Override
+        public String toString() {
+            return tagID;
+        }
+    }
+
+    /**
+     * Decoded rows of both sensor logs of a tag.
+     */
+    private record Decoded(String tagID, short[] image, Map<BIN_SENSOR_TYPES, Rows> rows) {
+        @Override
+        public String toString() {
+            return tagID;
+        }
+    }
+
+    private record Rows(long[] times, short[] values, int count) {
+    }
+
+    private final RT0013manager manager;
+    private final Options options;
+    private final Set<String> scheduled = ConcurrentHashMap.newKeySet();
+    private final LongAdder dropped = new LongAdder();
+    private final Stage<String> fetch;
+    private final Stage<Fetched> decode;
+    private final Stage<Decoded> persist;
+    private Flow.Subscription arrivals;
+    private boolean running = false;
+    private long started;
+
+    public RT0013pipeline(RT0013manager manager, Options options) {
+        this.manager = manager;
+        this.options = options;
+        this.persist = new Stage<>("persist", options.queueCapacity(), 1, null, this::persist);
+        this.decode = new Stage<>("decode", options.queueCapacity(), options.decoders(), null, this::decode);
+        this.fetch = new Stage<>("fetch", options.queueCapacity(), 1, this::departureOrder, this::fetch);
+    }
+
+    /**
+     * Starts all workers and subscribes to arrivals of the inventory.
+     */
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        started = System.nanoTime();
+        persist.start();
+        decode.start();
+        fetch.start();
+        manager.getEvents().inventory().subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                synchronized (RT0013pipeline.this) {
+                    arrivals = subscription;
+                }
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(InventoryEvent event) {
+                if (event.kind() == InventoryEvent.Kind.ARRIVED)
+                    submit(event.tagID());
+                else
+                    scheduled.remove(event.tagID());
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                System.err.println("Inventory events failed: " + throwable.getMessage());
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+    }
+
+    /**
+     * Queues a tag for download unless it already was since its arrival.
+     *
+     * @param tagID Tag ID as hex string, must be in field (see RT0013manager.getFieldTag())
+     * @return Whether the tag was queued
+     */
+    public boolean submit(String tagID) {
+        if (!scheduled.add(tagID))
+            return false;
+        if (fetch.offer(tagID))
+            return true;
+        scheduled.remove(tagID);
+        dropped.increment();
+        System.err.println("Download queue full, " + tagID + " dropped!");
+        return false;
+    }
+
+    /**
+     * Order of the download queue: tags expected to leave first, then by arrival. Tags already gone come first to be
+     * dropped right away.
+     */
+    private Comparator<String> departureOrder() {
+        PresenceTable presence = manager.getEvents().presence();
+        Map<String, TagPresence> present = new HashMap<>();
+        return Comparator.comparingLong((String tagID) -> {
+                    TagPresence tag = present.computeIfAbsent(tagID, presence::get);
+                    return (tag == null) ? Long.MIN_VALUE : presence.expectedDeparture(tag);
+                })
+                .thenComparingLong(tagID -> {
+                    TagPresence tag = present.computeIfAbsent(tagID, presence::get);
+                    return (tag == null) ? Long.MIN_VALUE : tag.firstSeen();
+                });
+    }
+
+    /**
+     * Stage 2: lock-on and register read, most valuable first (see RT0013manager.bufferFetchValueFirst()).
+     * Identity and user area are only read if the tag is not expected to have left already.
+     */
+    private void fetch(String tagID) throws InterruptedException {
+        CAENRFIDTag tag = manager.getFieldTag(tagID);
+        if (tag == null)
+            throw new IllegalStateException("Tag left the field");
+        manager.bufferLockOn(tag);
+        PresenceTable presence = manager.getEvents().presence();
+        TagPresence present = presence.get(tagID);
+        manager.bufferFetchValueFirst(present != null && System.currentTimeMillis() < presence.expectedDeparture(present));
+        decode.put(new Fetched(tagID, manager.bufferSnapshot().toArray()));
+    }
+
+    /**
+     * Stage 3: decoding both sensor logs, rows not published yet go to TagEvents.measurements().
+     */
+    private void decode(Fetched fetched) throws IOException, InterruptedException {
+        Map<BIN_SENSOR_TYPES, Rows> rows = new EnumMap<>(BIN_SENSOR_TYPES.class);
+        for (BIN_SENSOR_TYPES sensor : BIN_SENSOR_TYPES.values()) {
+            long[][] times = {new long[256]};
+            short[][] values = {new short[256]};
+            int count = RT0013decoder.streamLogData(sensor, fetched.image(), new RT0013decoder.LogSink() {
+                private int row;
+
+                @Override
+                public void accept(long epochSeconds, short fixedPoint) {
+                    if (row == times[0].length) {
+                        times[0] = Arrays.copyOf(times[0], row * 2);
+                        values[0] = Arrays.copyOf(values[0], row * 2);
+                    }
+                    times[0][row] = epochSeconds;
+                    values[0][row++] = fixedPoint;
+                }
+            });
+            rows.put(sensor, new Rows(times[0], values[0], count));
+            manager.publishRows(fetched.tagID(), sensor, times[0], values[0], count);
+        }
+        persist.put(new Decoded(fetched.tagID(), fetched.image(), rows));
+    }
+
+    /**
+     * Stage 4: storing and exporting.
+     */
+    private void persist(Decoded decoded) throws IOException {
+        if (options.store() != null)
+            for (Map.Entry<BIN_SENSOR_TYPES, Rows> entry : decoded.rows().entrySet()) {
+                Rows rows = entry.getValue();
+                try (MeasurementStore.Ingest ingest = options.store().ingest(decoded.tagID(), entry.getKey())) {
+                    for (int i = 0; i < rows.count(); i++)
+                        ingest.writeRow(rows.times()[i], rows.values()[i]);
+                }
+            }
+        if (options.format() != null)
+            RT0013decoder.exportLogData(Map.of(decoded.tagID(), decoded.image()), options.format(), options.options());
+    }
+
+    /**
+     * @return Count of arrivals dropped for a full download queue
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return Counters of fetch, decode and persist stage
+     */
+    public List<StageStats> getStats() {
+        return List.of(fetch.stats(), decode.stats(), persist.stats());
+    }
+
+    /**
+     * @return Share of time since start the RF link was busy fetching (0..1)
+     */
+    public synchronized double getLinkUtilization() {
+        long elapsed = System.nanoTime() - started;
+        return (!running || elapsed <= 0) ? 0 : Math.min(1, (double) fetch.busyNanos.sum() / elapsed);
+    }
+
+    /**
+     * Stops taking arrivals and waits until every queued tag is persisted.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (arrivals != null)
+                arrivals.cancel();
+        }
+        fetch.close();
+        decode.close();
+        persist.close();
+    }
+
+    /**
+     * Bounded queue with its own workers.
+     */
+    private static final class Stage<T> {
+        private interface Handler<T> {
+            void handle(T item) throws Exception;
+        }
+
+        private final String name;
+        private final int capacity;
+        private final List<T> queue = new ArrayList<>();
+        private final Supplier<Comparator<? super T>> order;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private final Handler<T> handler;
+        private final List<Thread> workers = new ArrayList<>();
+        private final LongAdder done = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+        private volatile boolean closing = false;
+
+        /**
+         * @param order Order of the queue, evaluated anew at every take as it may change meanwhile, null for FIFO
+         */
+        private Stage(String name, int capacity, int threads, Supplier<Comparator<? super T>> order, Handler<T> handler) {
+            this.name = name;
+            this.capacity = capacity;
+            this.order = order;
+            this.handler = handler;
+            for (int i = 0; i < threads; i++) {
+                Thread worker = new Thread(this::work, "pipeline-" + name + "-" + i);
+                worker.setDaemon(true);
+                workers.add(worker);
+            }
+        }
+
+        private void start() {
+            for (Thread worker : workers)
+                if (worker.getState() == Thread.State.NEW)
+                    worker.start();
+        }
+
+        private boolean offer(T item) {
+            lock.lock();
+            try {
+                if (closing || queue.size() >= capacity)
+                    return false;
+                queue.add(item);
+                notEmpty.signal();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void put(T item) throws InterruptedException {
+            lock.lock();
+            try {
+                while (queue.size() >= capacity)
+                    notFull.await();
+                queue.add(item);
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Takes the first item by order, waiting up to the timeout.
+         */
+        private T poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            lock.lock();
+            try {
+                while (queue.isEmpty()) {
+                    if (nanos <= 0)
+                        return null;
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+                int first = 0;
+                if (order != null) {
+                    Comparator<? super T> comparator = order.get();
+                    for (int i = 1; i < queue.size(); i++)
+                        if (comparator.compare(queue.get(i), queue.get(first)) < 0)
+                            first = i;
+                }
+                notFull.signal();
+                return queue.remove(first);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private int size() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Takes items until closed and drained.
+         */
+        private void work() {
+            while (true) {
+                T item;
+                try {
+                    item = poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (item == null) {
+                    if (closing)
+                        return;
+                    continue;
+                }
+                long started = System.nanoTime();
+                try {
+                    handler.handle(item);
+                    done.increment();
+                } catch (InterruptedException e) {
+                    failed.increment();
+                    return;
+                } catch (Exception e) {
+                    failed.increment();
+                    System.err.println("Pipeline " + name + " failed for " + item + ": " + e.getMessage());
+                } finally {
+                    busyNanos.add(System.nanoTime() - started);
+                }
+            }
+        }
+
+        private StageStats stats() {
+            return new StageStats(name, size(), done.sum(), failed.sum(), busyNanos.sum());
+        }
+
+        /**
+         * Waits until the queue is drained and all workers are idle.
+         */
+        private void close() {
+            closing = true;
+            for (Thread worker : workers) {
+                if (worker.getState() == Thread.State.NEW)
+                    continue;
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
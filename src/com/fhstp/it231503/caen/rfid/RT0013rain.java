@@ -2,6 +2,14 @@ package com.fhstp.it231503.caen.rfid;
 
 import com.caen.RFIDLibrary.*;
 
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static com.fhstp.it231503.caen.util.Helper.bytesToHexstring;
 import static com.fhstp.it231503.caen.util.Helper.shortsToBytes;
 
 /**
@@ -16,7 +24,7 @@ public class RT0013rain implements RT0013 {
     /**
      * CAEN API wrapper for tag access
      */
-    private CAENRFIDTag tag;
+    private volatile CAENRFIDTag tag;
     /**
      * CAEN API virtual channel for tag communication
      */
@@ -25,6 +33,18 @@ public class RT0013rain implements RT0013 {
      * Physical channel for CAEN API communication
      */
     private final CAENRFIDReader myReader = new CAENRFIDReader();
+    /**
+     * Grants the RF link to one transaction at a time, most urgent first
+     */
+    private final RT0013scheduler scheduler = new RT0013scheduler();
+    /**
+     * Time after which the command queue of a tag not talked to is closed
+     */
+    public static final Duration SESSION_IDLE = Duration.ofSeconds(30);
+    /**
+     * Command queues of the tags recently talked to, keyed by tag ID
+     */
+    private final Map<String, RT0013tagSession> sessions = new ConcurrentHashMap<>();
 
     public CAENRFIDTag getTag() {
         return tag;
@@ -60,6 +80,8 @@ public class RT0013rain implements RT0013 {
      * @throws RuntimeException When deinit fails.
      */
     public void closeResources() {
+        sessions.values().forEach(RT0013tagSession::close);
+        sessions.clear();
         try {
             mySource = null;
             myReader.Disconnect();
@@ -74,13 +96,89 @@ public class RT0013rain implements RT0013 {
      * @throws RuntimeException Fails in case of critical API error. Does NOT mean finding nothing!
      */
     public CAENRFIDTag[] doInventory() {
+        return doInventory(false);
+    }
+
+    /**
+     * Function for scanning for RFID tags.
+     *
+     * @param rssi Whether the reader shall report the RSSI of every tag
+     * @throws RuntimeException Fails in case of critical API error. Does NOT mean finding nothing!
+     */
+    public CAENRFIDTag[] doInventory(boolean rssi) {
         try {
-            return mySource.InventoryTag();
-        } catch (CAENRFIDException e) {
+            if (!rssi)
+                return scheduler.exclusive(mySource::InventoryTag);
+            return scheduler.exclusive(() -> mySource.InventoryTag(new byte[0], (short) 0, (short) 0, (short) CAENRFIDLogicalSource.InventoryFlag.RSSI.getValue()));
+        } catch (Exception e) {
             throw new RuntimeException("Failed to inventory tags: " + e.getMessage(), e);
         }
     }
 
+    public RT0013scheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Gets the command queue of a tag, opening it on first use.
+     *
+     * @param tag Tag
+     * @return Session of said tag
+     */
+    public RT0013tagSession session(CAENRFIDTag tag) {
+        return sessions.computeIfAbsent(bytesToHexstring(tag.GetId()), RT0013tagSession::new);
+    }
+
+    /**
+     * Function to run a command in order in the tag's session and wait for it. A session closed meanwhile (see
+     * closeSession()) is replaced by a new one.
+     *
+     * @param tag     Tag
+     * @param command Command to run
+     * @param <T>     Type of result
+     * @return Result of command
+     * @throws RuntimeException If the command fails or waiting is interrupted.
+     */
+    public <T> T inSession(CAENRFIDTag tag, Callable<T> command) {
+        while (true) {
+            RT0013tagSession session = session(tag);
+            try {
+                return session.call(command);
+            } catch (RejectedExecutionException e) {
+                if (!session.isClosed())
+                    throw e;
+                sessions.remove(session.getTagID(), session);
+            }
+        }
+    }
+
+    /**
+     * Closes the command queue of a tag, e.g. once it left the field. Queued commands still run.
+     *
+     * @param tagID Tag ID as hex string
+     */
+    public void closeSession(String tagID) {
+        RT0013tagSession session = sessions.remove(tagID);
+        if (session != null)
+            session.close();
+    }
+
+    /**
+     * Closes the command queues of tags not talked to for a while.
+     *
+     * @param idle Time without commands
+     * @return Count of sessions closed
+     */
+    public int closeIdleSessions(Duration idle) {
+        int closed = 0;
+        for (RT0013tagSession session : sessions.values())
+            if (session.isIdle(idle.toNanos()) && sessions.remove(session.getTagID(), session)) {
+                session.close();
+                closed++;
+            }
+        return closed;
+    }
+
     /**
      * Low level communication implementation for QLOG CAEN RT0013 RFID TAG. Provides Low level Communication according to RT0013 Datasheet
      *
@@ -172,6 +270,36 @@ public class RT0013rain implements RT0013 {
         }
     }
 
+    /**
+     * RF primitive without result, see rf().
+     */
+    private interface Primitive {
+        void run() throws Exception;
+    }
+
+    /**
+     * Function to run one RF primitive of a tag command with exclusive use of the reader. The link is released in
+     * between, e.g. while the tag processes the command, so commands to other tags get through; the tag's session
+     * keeps its own handshake in order.
+     *
+     * @param started   Whether the command already reached the tag, then the caller's deadline no longer applies
+     * @param primitive Single reader call
+     * @throws TimeoutException If the deadline passes before the first primitive is granted the link.
+     */
+    private <T> T rf(boolean started, Callable<T> primitive) throws Exception {
+        RT0013scheduler.Command command = RT0013scheduler.current();
+        if (!started || !command.hasDeadline())
+            return scheduler.exclusive(primitive);
+        return RT0013scheduler.within(new RT0013scheduler.Command(command.priority(), Long.MAX_VALUE), () -> scheduler.exclusive(primitive));
+    }
+
+    private void rf(boolean started, Primitive primitive) throws Exception {
+        rf(started, () -> {
+            primitive.run();
+            return null;
+        });
+    }
+
     /**
      * Reads from RT0013-Tags internal memory
      *
@@ -196,19 +324,19 @@ public class RT0013rain implements RT0013 {
         }
 
         //check current idmsg value written in reply word and adjust idmsg of next command accordingly
-        if (LS_0.ReadTagData_EPC_C1G2(tag, INTERFACEMEM.CMDBANK, INTERFACEMEM.ADDR_REPLY, (short) 2)[0] == idmsg)
+        if (rf(false, () -> LS_0.ReadTagData_EPC_C1G2(tag, INTERFACEMEM.CMDBANK, INTERFACEMEM.ADDR_REPLY, (short) 2))[0] == idmsg)
             idmsg++;
         command = (short) (idmsg << 8 | INTERFACEMEM.CMD_READ);
 
         //load command parameters in user memory
-        INTERFACEMEM.interfacemem_writeparams(LS_0, tag, command, (short) (byteaddress / 2), (short) (numbytes / 2));
+        rf(true, () -> INTERFACEMEM.interfacemem_writeparams(LS_0, tag, command, (short) (byteaddress / 2), (short) (numbytes / 2)));
         //trigger tag command reception+execution
-        INTERFACEMEM.interfacemem_trigger(LS_0, tag);
-        //wait for tag to parse command, execute it, and reply
+        rf(true, () -> INTERFACEMEM.interfacemem_trigger(LS_0, tag));
+        //wait for tag to parse command, execute it, and reply (link released meanwhile)
         Thread.sleep(TIME_WAITTAG_CMDREADBASE + (long) TIME_WAITTAG_WRITEPAGE * (numbytes / 4 + 1));
 
         //check if tag replied
-        byte[] buff = INTERFACEMEM.interfacemem_readreply(LS_0, tag);
+        byte[] buff = rf(true, () -> INTERFACEMEM.interfacemem_readreply(LS_0, tag));
         if (buff[0] == idmsg) {
             reply = buff[1];
             if (!((reply == INTERFACEMEM.REPLY_ACK) || (reply == INTERFACEMEM.REPLY_NACK))) {
@@ -224,7 +352,7 @@ public class RT0013rain implements RT0013 {
         }
 
         //tag replied ACK, now we can read the TAGDATA
-        return INTERFACEMEM.interfacemem_readdata(LS_0, tag, (short) 0, numbytes);
+        return rf(true, () -> INTERFACEMEM.interfacemem_readdata(LS_0, tag, (short) 0, numbytes));
     }
 
     /**
@@ -250,21 +378,21 @@ public class RT0013rain implements RT0013 {
         }
 
         //check current idmsg value written in reply word and adjust idmsg of next command accordingly
-        if (LS_0.ReadTagData_EPC_C1G2(tag, INTERFACEMEM.CMDBANK, INTERFACEMEM.ADDR_REPLY, (short) 2)[0] == idmsg)
+        if (rf(false, () -> LS_0.ReadTagData_EPC_C1G2(tag, INTERFACEMEM.CMDBANK, INTERFACEMEM.ADDR_REPLY, (short) 2))[0] == idmsg)
             idmsg++;
         command = (short) (idmsg << 8 | INTERFACEMEM.CMD_WRITE);
 
         //load command parameters in user memory
-        INTERFACEMEM.interfacemem_writeparams(LS_0, tag, command, (short) (byteaddress / 2), (short) (numbytes / 2));
+        rf(true, () -> INTERFACEMEM.interfacemem_writeparams(LS_0, tag, command, (short) (byteaddress / 2), (short) (numbytes / 2)));
         //load TAGDATA to be written
-        INTERFACEMEM.interfacemem_writedata(LS_0, tag, (short) 0, numbytes, data);
+        rf(true, () -> INTERFACEMEM.interfacemem_writedata(LS_0, tag, (short) 0, numbytes, data));
         //trigger tag command reception+execution
-        INTERFACEMEM.interfacemem_trigger(LS_0, tag);
-        //wait for tag to parse command, execute it, and reply
+        rf(true, () -> INTERFACEMEM.interfacemem_trigger(LS_0, tag));
+        //wait for tag to parse command, execute it, and reply (link released meanwhile)
         Thread.sleep(TIME_WAITTAG_CMDWRITE);
 
         //check if tag replied
-        byte[] buff = INTERFACEMEM.interfacemem_readreply(LS_0, tag);
+        byte[] buff = rf(true, () -> INTERFACEMEM.interfacemem_readreply(LS_0, tag));
         if (buff[0] == idmsg) {
             reply = buff[1];
             if (!((reply == INTERFACEMEM.REPLY_ACK) || (reply == INTERFACEMEM.REPLY_NACK))) {
@@ -281,17 +409,36 @@ public class RT0013rain implements RT0013 {
     }
 
     /**
-     * Little usage wrapper for TagReadRegisters()
+     * Little usage wrapper for TagReadRegisters(), addressing the current tag.
      * @author Emil Sedlacek / it231503
      * @see INTERFACEMEM
      * @implNote Using CAEN API 5.0.0
      */
     public byte[] readTag(short wordddress, short words2read) {
+        return readTag(tag, wordddress, words2read);
+    }
+
+    /**
+     * Little usage wrapper for TagReadRegisters()
+     * @author Emil Sedlacek / it231503
+     * @see INTERFACEMEM
+     * @implNote Using CAEN API 5.0.0. Thread-safe: runs in the tag's session with the caller's scheduling context,
+     * each reader call of an attempt holds the reader exclusively, not the tag's processing time.
+     * @throws RuntimeException If reading fails thrice or the deadline of the caller's context is missed.
+     */
+    public byte[] readTag(CAENRFIDTag tag, short wordddress, short words2read) {
+        RT0013scheduler.Command command = RT0013scheduler.current();
+        return inSession(tag, () -> RT0013scheduler.within(command, () -> readTagInSession(tag, wordddress, words2read)));
+    }
+
+    private byte[] readTagInSession(CAENRFIDTag tag, short wordddress, short words2read) {
         byte[] dataToRead = null;
         for (int i = 1; i <= 3; i++) {
             try {
                 dataToRead = TagReadRegisters(myReader.GetSources()[0], tag, (short) (wordddress * 2), words2read);  // Wordaddress from RT0013-DOC to byteadress
                 break;
+            } catch (TimeoutException e) {
+                throw new RuntimeException("Critical: " + e.getMessage() + ", not reading from tag.", e);
             } catch (Exception e) {
                 System.err.println("Error in general read operation! Try #" + i);
                 if (i == 3)
@@ -303,12 +450,32 @@ public class RT0013rain implements RT0013 {
     }
 
     /**
-     * Little usage wrapper for TagWriteRegisters()
+     * Little usage wrapper for TagWriteRegisters(), addressing the current tag.
      * @author Emil Sedlacek / it231503
      * @see INTERFACEMEM
      * @implNote Using CAEN API 5.0.0
      */
     public void writeTag(short wordaddress, short[] dataToWrite) {
+        writeTag(tag, wordaddress, dataToWrite);
+    }
+
+    /**
+     * Little usage wrapper for TagWriteRegisters()
+     * @author Emil Sedlacek / it231503
+     * @see INTERFACEMEM
+     * @implNote Using CAEN API 5.0.0. Thread-safe: runs in the tag's session with the caller's scheduling context,
+     * each reader call of an attempt holds the reader exclusively, not the tag's processing time.
+     * @throws RuntimeException If writing fails thrice or the deadline of the caller's context is missed.
+     */
+    public void writeTag(CAENRFIDTag tag, short wordaddress, short[] dataToWrite) {
+        RT0013scheduler.Command command = RT0013scheduler.current();
+        inSession(tag, () -> RT0013scheduler.within(command, () -> {
+            writeTagInSession(tag, wordaddress, dataToWrite);
+            return null;
+        }));
+    }
+
+    private void writeTagInSession(CAENRFIDTag tag, short wordaddress, short[] dataToWrite) {
         byte[] temp = shortsToBytes(dataToWrite);
         if (temp.length % 2 != 0) {
             System.err.println("Error: Datalength to write is odd.");
@@ -318,6 +485,8 @@ public class RT0013rain implements RT0013 {
             try {
                 TagWriteRegisters(myReader.GetSources()[0], tag, (short) (wordaddress * 2), (short) dataToWrite.length, temp);
                 break;
+            } catch (TimeoutException e) {
+                throw new RuntimeException("Critical: " + e.getMessage() + ", not writing to tag.", e);
             } catch (Exception e) {
                 System.err.println("Error in write operation! Attempt #" + i);
                 if (i == 3) {
@@ -0,0 +1,109 @@
+package com.fhstp.it231503.caen.rfid;
+
+import java.time.Duration;
+
+import static com.fhstp.it231503.caen.rfid.RT0013.*;
+
+/**
+ * Classification of the RT0013 register map into regions of similar volatility.
+ * Volatile regions are changed by the tag itself (sampling, counters, logging) and must be revalidated
+ * whenever a tag is locked onto again; the others only change when written by us.
+ * Each region carries its own TTL, after which buffered words are fetched again.
+ *
+ * @author Emil Sedlacek / it231503
+ * @see "CAEN Technical Information"
+ */
+public enum RT0013region {
+    /**
+     * Identity and revision words.
+     */
+    IDENTITY(REG_START, (short) 0x09, false, null),
+    /**
+     * Control, dates, bin enables, limits, sample times and thresholds.
+     */
+    CONFIG(REG_CONTROL, (short) 0x50, false, Duration.ofHours(12)),
+    /**
+     * Status, bin alarm, bin counters, last sample and samples number.
+     */
+    LIVE(REG_STATUS, REG_SAMPLES_NUM_H, true, Duration.ofSeconds(10)),
+    /**
+     * Shipping and stop date. Stop date is set by the tag when logging ends.
+     */
+    DATES((short) (REG_SAMPLES_NUM_H + 1), REG_STOP_DATE_H, true, Duration.ofMinutes(1)),
+    /**
+     * Free user area.
+     */
+    USER(REG_USER_AREA_START, REG_USER_AREA_END, false, Duration.ofHours(12)),
+    /**
+     * Append-only temperature log.
+     */
+    LOG_T(REG_LOG_AREA_T_START, REG_LOG_AREA_T_END, true, Duration.ofMinutes(1)),
+    /**
+     * Append-only humidity log.
+     */
+    LOG_H(REG_LOG_AREA_H_START, REG_LOG_AREA_H_END, true, Duration.ofMinutes(1));
+
+    private final short first;
+    private final short last;
+    private final boolean isVolatile;
+    private final Duration ttl;
+
+    RT0013region(short first, short last, boolean isVolatile, Duration ttl) {
+        this.first = first;
+        this.last = last;
+        this.isVolatile = isVolatile;
+        this.ttl = ttl;
+    }
+
+    public short first() {
+        return first;
+    }
+
+    public short last() {
+        return last;
+    }
+
+    public int words() {
+        return last - first + 1;
+    }
+
+    public boolean isVolatile() {
+        return isVolatile;
+    }
+
+    /**
+     * @return Time a fetched region stays valid, null if it never expires
+     */
+    public Duration ttl() {
+        return ttl;
+    }
+
+    /**
+     * Function to check whether a region fetched at a given time is still valid.
+     *
+     * @param fetchedMillis Time of fetch in epoch millis, 0 if never fetched
+     * @param nowMillis     Current time in epoch millis
+     * @return Whether the region may be served from buffer
+     */
+    public boolean isFresh(long fetchedMillis, long nowMillis) {
+        return fetchedMillis != 0 && (ttl == null || nowMillis - fetchedMillis < ttl.toMillis());
+    }
+
+    public boolean contains(short wordaddress) {
+        return wordaddress >= first && wordaddress <= last;
+    }
+
+    /**
+     * Function to find the region of a word.
+     *
+     * @param wordaddress Address of tag register
+     * @return Region containing the word
+     * @throws IllegalArgumentException If address is outside of the register map.
+     */
+    public static RT0013region of(short wordaddress) {
+        for (RT0013region region : values())
+            if (region.contains(wordaddress))
+                return region;
+        throw new IllegalArgumentException("Address outside of register map: 0x" + Integer.toHexString(wordaddress & 0xFFFF));
+    }
+}
@@ -0,0 +1,271 @@
+package com.fhstp.it231503.caen.rfid;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Command scheduler of the reader. The reader has a single RF link, so every transaction (an inventory round, one
+ * reader call of a register read or write) is granted the link exclusively. The tag processing a command in between
+ * does not hold the link, so commands to other tags get through meanwhile. Waiting transactions are granted by
+ * priority, then earliest deadline, then arrival. Bulk transfers are split into chunks (see RT0013manager.readRange()),
+ * so an interactive command waits for at most the reader call in flight.
+ * <p>
+ * Priority and deadline are set per calling thread with call() and carried into tag sessions by RT0013rain.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Thread-safe. Uses a lock instead of a monitor, so waiting virtual threads do not pin their carrier.
+ * A transaction still waiting at its deadline is dropped with a TimeoutException instead of running late.
+ */
+public class RT0013scheduler {
+    /**
+     * Urgency of a command, most urgent first.
+     */
+    public enum Priority {
+        /**
+         * Operator waiting for an answer, e.g. a status check.
+         */
+        INTERACTIVE,
+        /**
+         * Default, e.g. single registers and inventory rounds.
+         */
+        NORMAL,
+        /**
+         * Multi-chunk downloads.
+         */
+        BULK
+    }
+
+    /**
+     * Scheduling context of commands issued by a thread.
+     *
+     * @param priority      Priority
+     * @param deadlineNanos Latest System.nanoTime() to be granted the link at, Long.MAX_VALUE for none
+     */
+    public record Command(Priority priority, long deadlineNanos) {
+        public static final Command DEFAULT = new Command(Priority.NORMAL, Long.MAX_VALUE);
+
+        public boolean hasDeadline() {
+            return deadlineNanos != Long.MAX_VALUE;
+        }
+
+        /**
+         * @return Same deadline with a different priority
+         */
+        public Command as(Priority priority) {
+            return new Command(priority, deadlineNanos);
+        }
+    }
+
+    private static final ThreadLocal<Command> CURRENT = ThreadLocal.withInitial(() -> Command.DEFAULT);
+
+    private record Waiter(Command command, long sequence, Condition granted) {
+    }
+
+    private static final Comparator<Waiter> ORDER = Comparator
+            .comparing((Waiter waiter) -> waiter.command().priority())
+            .thenComparingLong(waiter -> waiter.command().deadlineNanos())
+            .thenComparingLong(Waiter::sequence);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(ORDER);
+    private Waiter owner;
+    private boolean busy = false;
+    private long sequence = 0;
+
+    private final Map<Priority, LongAdder> grants = new EnumMap<>(Priority.class);
+    private final Map<Priority, LongAdder> waitNanos = new EnumMap<>(Priority.class);
+    private final LongAdder missed = new LongAdder();
+
+    public RT0013scheduler() {
+        for (Priority priority : Priority.values()) {
+            grants.put(priority, new LongAdder());
+            waitNanos.put(priority, new LongAdder());
+        }
+    }
+
+    /**
+     * @return Scheduling context of the calling thread
+     */
+    public static Command current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Function to run commands with a priority and deadline, e.g. an operator's status check.
+     *
+     * @param priority Priority
+     * @param deadline Time from now the link must be granted within, null for none
+     * @param commands Commands to run in the calling thread
+     * @param <T>      Type of result
+     * @return Result of commands
+     * @throws Exception Whatever the commands throw.
+     */
+    public static <T> T call(Priority priority, Duration deadline, Callable<T> commands) throws Exception {
+        return within(new Command(priority, (deadline == null) ? Long.MAX_VALUE : System.nanoTime() + deadline.toNanos()), commands);
+    }
+
+    /**
+     * Function to run commands in a given context, e.g. one captured on another thread.
+     *
+     * @param command  Scheduling context
+     * @param commands Commands to run in the calling thread
+     * @param <T>      Type of result
+     * @return Result of commands
+     * @throws Exception Whatever the commands throw.
+     */
+    public static <T> T within(Command command, Callable<T> commands) throws Exception {
+        Command outer = CURRENT.get();
+        if (outer.equals(command))
+            return commands.call();
+        CURRENT.set(command);
+        try {
+            return commands.call();
+        } finally {
+            CURRENT.set(outer);
+        }
+    }
+
+    /**
+     * Function to run a transaction with exclusive use of the reader, scheduled by the calling thread's context.
+     *
+     * @param transaction Transaction to run
+     * @param <T>         Type of result
+     * @return Result of transaction
+     * @throws TimeoutException If the deadline passes before the link is granted.
+     * @throws Exception        Whatever the transaction throws.
+     */
+    public <T> T exclusive(Callable<T> transaction) throws Exception {
+        Command command = current();
+        long start = System.nanoTime();
+        acquire(command, start);
+        try {
+            grants.get(command.priority()).increment();
+            waitNanos.get(command.priority()).add(System.nanoTime() - start);
+            return transaction.call();
+        } finally {
+            release();
+        }
+    }
+
+    private void acquire(Command command, long start) throws TimeoutException, InterruptedException {
+        lock.lock();
+        try {
+            if (start - command.deadlineNanos() > 0)
+                throw missed(command);
+            if (!busy && waiters.isEmpty()) {
+                busy = true;
+                owner = null;
+                return;
+            }
+            Waiter waiter = new Waiter(command, sequence++, lock.newCondition());
+            waiters.add(waiter);
+            try {
+                while (owner != waiter) {
+                    if (!command.hasDeadline())
+                        waiter.granted().await();
+                    else if (waiter.granted().awaitNanos(command.deadlineNanos() - System.nanoTime()) <= 0 && owner != waiter) {
+                        waiters.remove(waiter);
+                        throw missed(command);
+                    }
+                }
+            } catch (InterruptedException e) {
+                if (owner == waiter)
+                    release(); // granted meanwhile, pass on
+                else
+                    waiters.remove(waiter);
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private TimeoutException missed(Command command) {
+        missed.increment();
+        return new TimeoutException("Deadline of " + command.priority() + " command missed");
+    }
+
+    /**
+     * Hands the link to the most urgent waiter.
+     */
+    private void release() {
+        lock.lock();
+        try {
+            owner = waiters.poll();
+            if (owner == null)
+                busy = false;
+            else
+                owner.granted().signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Count of transactions waiting for the link
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Count of granted transactions
+     */
+    public long getGrants() {
+        long sum = 0;
+        for (LongAdder adder : grants.values())
+            sum += adder.sum();
+        return sum;
+    }
+
+    /**
+     * @param priority Priority
+     * @return Count of granted transactions of said priority
+     */
+    public long getGrants(Priority priority) {
+        return grants.get(priority).sum();
+    }
+
+    /**
+     * @return Mean wait for the link in milliseconds
+     */
+    public double getMeanWaitMillis() {
+        long count = 0;
+        long nanos = 0;
+        for (Priority priority : Priority.values()) {
+            count += grants.get(priority).sum();
+            nanos += waitNanos.get(priority).sum();
+        }
+        return (count == 0) ? 0 : (double) nanos / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @param priority Priority
+     * @return Mean wait for the link of said priority in milliseconds
+     */
+    public double getMeanWaitMillis(Priority priority) {
+        long count = grants.get(priority).sum();
+        return (count == 0) ? 0 : (double) waitNanos.get(priority).sum() / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return Count of transactions dropped at their deadline
+     */
+    public long getMissed() {
+        return missed.sum();
+    }
+}
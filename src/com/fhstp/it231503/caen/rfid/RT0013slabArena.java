@@ -0,0 +1,84 @@
+package com.fhstp.it231503.caen.rfid;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Off-heap arena of fixed-size slabs, addressed by slot. Memory is reserved in direct chunks on demand and
+ * never returned, freed slots are reused. Keeps register images of large tag populations out of the Java heap.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Not thread-safe, RT0013imageCache synchronizes access.
+ */
+class RT0013slabArena {
+    private static final int SLABS_PER_CHUNK = 256;
+
+    private final int slabBytes;
+    private final int capacity;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private int[] free = new int[16];
+    private int freeCount;
+    private int next;
+
+    /**
+     * @param slabBytes Size of one slab
+     * @param capacity  Maximum number of slabs
+     * @throws IllegalArgumentException When sizes are not positive.
+     */
+    RT0013slabArena(int slabBytes, int capacity) {
+        if (slabBytes <= 0 || capacity <= 0)
+            throw new IllegalArgumentException("Slab size and capacity must be positive");
+        this.slabBytes = slabBytes;
+        this.capacity = capacity;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    boolean isFull() {
+        return freeCount == 0 && next == capacity;
+    }
+
+    /**
+     * Function to reserve a slab. Contents are undefined.
+     *
+     * @return Slot of the slab
+     * @throws IllegalStateException If all slabs are in use.
+     */
+    int allocate() {
+        if (freeCount > 0)
+            return free[--freeCount];
+        if (next == capacity)
+            throw new IllegalStateException("Slab arena exhausted: " + capacity + " slabs");
+        if (next / SLABS_PER_CHUNK == chunks.size())
+            chunks.add(ByteBuffer.allocateDirect(Math.min(SLABS_PER_CHUNK, capacity - next) * slabBytes));
+        return next++;
+    }
+
+    void release(int slot) {
+        if (freeCount == free.length)
+            free = Arrays.copyOf(free, free.length * 2);
+        free[freeCount++] = slot;
+    }
+
+    /**
+     * @param slot Slot of the slab
+     * @return View of the slab, positions relative to its start
+     */
+    ByteBuffer slab(int slot) {
+        return chunks.get(slot / SLABS_PER_CHUNK).slice((slot % SLABS_PER_CHUNK) * slabBytes, slabBytes);
+    }
+
+    /**
+     * @return Off-heap bytes reserved so far
+     */
+    long reservedBytes() {
+        long bytes = 0;
+        for (ByteBuffer chunk : chunks)
+            bytes += chunk.capacity();
+        return bytes;
+    }
+}
@@ -0,0 +1,274 @@
+package com.fhstp.it231503.caen.rfid;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.fhstp.it231503.caen.rfid.RT0013.REG_START;
+
+/**
+ * Register image of one tag, held in an off-heap slab and persisted per tag ID so a restarted app does not
+ * re-read it over RF.
+ * Layout: "RTIM", version, word count, region count, one fetch timestamp (epoch millis) per region,
+ * validity bitmap (one bit per word) and the words themselves.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Thread-safe and lock-free: words, validity bits and timestamps are accessed atomically through VarHandles.
+ * Writers are counted, so toImage() retries until it copied a state no writer touched (seqlock).
+ * Changes reach the file on force() only.
+ */
+class RT0013snapshot {
+    /**
+     * Default snapshot location, relative to working directory.
+     */
+    static final Path DEFAULT_ROOT = Path.of("snapshots");
+
+    private static final byte[] MAGIC = {'R', 'T', 'I', 'M'};
+    private static final int VERSION = 1;
+    private static final int WORDS = RT0013decoder.IMAGE_WORDS;
+    private static final int REGIONS = RT0013region.values().length;
+    private static final int STAMP_OFFSET = 16;
+    private static final int VALID_OFFSET = STAMP_OFFSET + REGIONS * Long.BYTES;
+    private static final int WORD_OFFSET = VALID_OFFSET + ((WORDS + 63) / 64) * Long.BYTES;
+    /**
+     * Size of one image in bytes.
+     */
+    static final int BYTES = WORD_OFFSET + WORDS * Short.BYTES;
+    /**
+     * Size of one slab, keeping every slab 8-byte aligned for atomic access.
+     */
+    static final int SLAB_BYTES = (BYTES + Long.BYTES - 1) & -Long.BYTES;
+
+    private static final VarHandle SHORTS = MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final ByteBuffer map;
+    private final Path file;
+    private final int slot;
+    private volatile boolean dirty;
+    private final ReentrantLock saving = new ReentrantLock();
+    private final AtomicInteger writers = new AtomicInteger();
+    private final AtomicLong changes = new AtomicLong();
+
+    private RT0013snapshot(ByteBuffer map, Path file, int slot) {
+        this.map = map;
+        this.file = file;
+        this.slot = slot;
+        byte[] magic = new byte[MAGIC.length];
+        map.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC) || map.getInt(4) != VERSION || map.getInt(8) != WORDS || map.getInt(12) != REGIONS) {
+            clear(map);
+            map.put(0, MAGIC);
+            map.putInt(4, VERSION);
+            map.putInt(8, WORDS);
+            map.putInt(12, REGIONS);
+        }
+    }
+
+    private static void clear(ByteBuffer map) {
+        for (int i = 0; i + Long.BYTES <= BYTES; i += Long.BYTES)
+            map.putLong(i, 0L);
+        for (int i = BYTES & ~(Long.BYTES - 1); i < BYTES; i++)
+            map.put(i, (byte) 0);
+    }
+
+    /**
+     * Loads the persisted image of a tag into a slab. Missing files and files of other layouts give an empty image.
+     *
+     * @param root  Snapshot directory
+     * @param tagID Tag ID as hex string
+     * @param slab  Direct slab of SLAB_BYTES bytes, previous contents are discarded
+     * @param slot  Slot of the slab in its arena
+     * @return Snapshot
+     * @throws IllegalArgumentException When tag ID is invalid.
+     * @throws IOException              If the file cannot be read.
+     */
+    static RT0013snapshot load(Path root, String tagID, ByteBuffer slab, int slot) throws IOException {
+        if (tagID == null || !tagID.matches("[0-9A-Za-z_-]+"))
+            throw new IllegalArgumentException("Invalid tag ID: " + tagID);
+        Path file = root.resolve(tagID + ".img");
+        clear(slab);
+        if (Files.exists(file)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer target = slab.duplicate().clear().limit(BYTES);
+                while (target.hasRemaining())
+                    if (channel.read(target) < 0)
+                        break;
+            }
+        }
+        return new RT0013snapshot(slab, file, slot);
+    }
+
+    /**
+     * Creates a snapshot that is never persisted, used when no file can be read or no directory is given.
+     *
+     * @param slab Direct slab of SLAB_BYTES bytes, previous contents are discarded
+     * @param slot Slot of the slab in its arena
+     * @return Empty snapshot
+     */
+    static RT0013snapshot inMemory(ByteBuffer slab, int slot) {
+        clear(slab);
+        return new RT0013snapshot(slab, null, slot);
+    }
+
+    int slot() {
+        return slot;
+    }
+
+    private static int index(short wordaddress) {
+        int index = wordaddress - REG_START;
+        if (index < 0 || index >= WORDS)
+            throw new IllegalArgumentException("Address outside of register map: 0x" + Integer.toHexString(wordaddress & 0xFFFF));
+        return index;
+    }
+
+    boolean isValid(short wordaddress) {
+        int index = index(wordaddress);
+        return ((long) LONGS.getAcquire(map, VALID_OFFSET + (index >>> 6) * Long.BYTES) & (1L << index)) != 0;
+    }
+
+    short get(short wordaddress) {
+        return (short) SHORTS.getAcquire(map, WORD_OFFSET + index(wordaddress) * Short.BYTES);
+    }
+
+    /**
+     * Marks the start of a write, toImage() does not copy until all writers ended. May be nested to make a batch atomic.
+     */
+    void beginWrite() {
+        writers.incrementAndGet();
+    }
+
+    void endWrite() {
+        changes.incrementAndGet();
+        writers.decrementAndGet();
+        dirty = true;
+    }
+
+    /**
+     * @return Count of completed writes, used as image version
+     */
+    long changes() {
+        return changes.get();
+    }
+
+    /**
+     * Function to store a word read from or written to the tag and mark it valid.
+     *
+     * @param wordaddress Address of tag register
+     * @param value       Current tag value
+     */
+    void put(short wordaddress, short value) {
+        int index = index(wordaddress);
+        beginWrite();
+        SHORTS.setRelease(map, WORD_OFFSET + index * Short.BYTES, value);
+        LONGS.getAndBitwiseOr(map, VALID_OFFSET + (index >>> 6) * Long.BYTES, 1L << index);
+        endWrite();
+    }
+
+    void invalidate(short wordaddress) {
+        int index = index(wordaddress);
+        beginWrite();
+        LONGS.getAndBitwiseAnd(map, VALID_OFFSET + (index >>> 6) * Long.BYTES, ~(1L << index));
+        endWrite();
+    }
+
+    /**
+     * Function to drop all words of a region and its timestamp.
+     *
+     * @param region Region to drop
+     */
+    void invalidate(RT0013region region) {
+        beginWrite();
+        LONGS.setRelease(map, STAMP_OFFSET + region.ordinal() * Long.BYTES, 0L);
+        for (int a = region.first(); a <= region.last(); a++)
+            invalidate((short) a);
+        endWrite();
+    }
+
+    void invalidateAll() {
+        for (RT0013region region : RT0013region.values())
+            invalidate(region);
+    }
+
+    /**
+     * @param region Region of interest
+     * @return Time of last fetch from tag in epoch millis, 0 if never
+     */
+    long fetched(RT0013region region) {
+        return (long) LONGS.getAcquire(map, STAMP_OFFSET + region.ordinal() * Long.BYTES);
+    }
+
+    void stamp(RT0013region region, long epochMillis) {
+        beginWrite();
+        LONGS.setRelease(map, STAMP_OFFSET + region.ordinal() * Long.BYTES, epochMillis);
+        endWrite();
+    }
+
+    /**
+     * Function to copy a consistent state into an immutable image. Waits while writes are in progress and
+     * copies again if a write completed meanwhile.
+     *
+     * @param tagID Raw tag ID of this image
+     * @return Image, versioned by changes()
+     */
+    RT0013image toImage(byte[] tagID) {
+        short[] words = new short[WORDS];
+        long[] valid = new long[(WORDS + 63) / 64];
+        long[] fetched = new long[REGIONS];
+        for (int attempt = 0; ; attempt++) {
+            long version = changes.get();
+            if (writers.get() == 0) {
+                map.slice(WORD_OFFSET, WORDS * Short.BYTES).asShortBuffer().get(words);
+                map.slice(VALID_OFFSET, valid.length * Long.BYTES).asLongBuffer().get(valid);
+                map.slice(STAMP_OFFSET, REGIONS * Long.BYTES).asLongBuffer().get(fetched);
+                VarHandle.acquireFence();
+                if (writers.get() == 0 && changes.get() == version)
+                    return new RT0013image(tagID, version, words, valid, fetched);
+            }
+            if (attempt < 100)
+                Thread.onSpinWait();
+            else
+                Thread.yield();
+        }
+    }
+
+    /**
+     * Writes the image to its file if changed. The file is replaced as a whole by a temporary sibling, so a crash
+     * never leaves a torn snapshot. Failures are reported and retried on next call.
+     */
+    void force() {
+        if (!dirty || file == null)
+            return;
+        saving.lock();
+        try {
+            if (!dirty)
+                return;
+            dirty = false; // before copying, so concurrent writes mark it again
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.createDirectories(file.getParent());
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer source = map.duplicate().clear().limit(BYTES);
+                while (source.hasRemaining())
+                    channel.write(source, source.position());
+                channel.force(false);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            System.err.println("Saving register snapshot failed: " + e.getMessage());
+        } finally {
+            saving.unlock();
+        }
+    }
+}
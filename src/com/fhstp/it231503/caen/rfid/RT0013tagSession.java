@@ -0,0 +1,119 @@
+package com.fhstp.it231503.caen.rfid;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serial command queue of one tag, run by its own virtual thread. The interface memory handshake of the RT0013
+ * (command mailbox in CMDBANK, trigger, reply) is per tag, so commands to one tag must never interleave,
+ * while commands to different tags may.
+ *
+ * @author Emil Sedlacek / it231503
+ * @implNote Thread-safe. Commands submitted from within the session run inline to avoid waiting on itself.
+ */
+public class RT0013tagSession implements Executor, AutoCloseable {
+    private final String tagID;
+    private final ExecutorService queue;
+    private volatile Thread worker;
+    /**
+     * Commands queued or running, and System.nanoTime() the last one completed at.
+     */
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile long lastUsed = System.nanoTime();
+
+    /**
+     * @param tagID Tag ID as hex string, used for naming the thread
+     */
+    public RT0013tagSession(String tagID) {
+        this.tagID = tagID;
+        this.queue = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("tag-" + tagID).factory());
+    }
+
+    public String getTagID() {
+        return tagID;
+    }
+
+    /**
+     * Function to queue a command.
+     *
+     * @param command Command to run
+     * @param <T>     Type of result
+     * @return Future of result
+     * @throws RejectedExecutionException If session is closed.
+     */
+    public <T> Future<T> submit(Callable<T> command) {
+        active.incrementAndGet();
+        try {
+            return queue.submit(() -> {
+                worker = Thread.currentThread();
+                try {
+                    return command.call();
+                } finally {
+                    lastUsed = System.nanoTime();
+                    active.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            active.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Queues a command, e.g. for CompletableFuture.supplyAsync().
+     *
+     * @param command Command to run
+     * @throws RejectedExecutionException If session is closed.
+     */
+    @Override
+    public void execute(Runnable command) {
+        submit(Executors.callable(command));
+    }
+
+    /**
+     * Function to run a command in order and wait for it.
+     *
+     * @param command Command to run
+     * @param <T>     Type of result
+     * @return Result of command
+     * @throws RuntimeException If the command fails or waiting is interrupted.
+     */
+    public <T> T call(Callable<T> command) {
+        try {
+            if (Thread.currentThread() == worker)
+                return command.call();
+            return submit(command).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException)
+                throw runtimeException;
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for tag " + tagID, e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param idleNanos Time without commands
+     * @return Whether no command is queued or running and none was for said time
+     */
+    public boolean isIdle(long idleNanos) {
+        return active.get() == 0 && System.nanoTime() - lastUsed >= idleNanos;
+    }
+
+    public boolean isClosed() {
+        return queue.isShutdown();
+    }
+
+    /**
+     * Stops accepting commands, queued ones still run.
+     */
+    @Override
+    public void close() {
+        queue.shutdown();
+    }
+}
@@ -5,9 +5,12 @@ import com.fhstp.it231503.caen.rfid.RT0013;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 /**
  * Helper static class for sharing functions in implementations.
@@ -231,6 +234,27 @@ public class Helper {
             throw new IllegalArgumentException("Wrong sensor given");
     }
 
+    /**
+     * Size of the RT0013 fixed-point code space (13 Bits). Codes above are never produced by the tag.
+     */
+    public static final int FIXEDPOINT_CODES = 8192;
+
+    /**
+     * Precomputed decode tables per sensor, indexed by sensor ordinal and 13-bit code.
+     *
+     * @implNote Built once from fixedpointToFloatRanged() so both paths stay identical.
+     */
+    private static final float[][] DECODE_TABLES = new float[RT0013.BIN_SENSOR_TYPES.values().length][];
+
+    static {
+        for (RT0013.BIN_SENSOR_TYPES sensor : RT0013.BIN_SENSOR_TYPES.values()) {
+            float[] table = new float[FIXEDPOINT_CODES];
+            for (int code = 0; code < FIXEDPOINT_CODES; code++)
+                table[code] = fixedpointToFloatRanged(sensor, (short) code);
+            DECODE_TABLES[sensor.ordinal()] = table;
+        }
+    }
+
     /**
      * Function to convert register short according to RT0013-encoding to float temperature/humidity value.
      *
@@ -238,8 +262,26 @@ public class Helper {
      * @param fixedPoint Register temperature/humidity value
      * @return Value in °C or %
      * @throws IllegalArgumentException When wrong sensor is given.
+     * @implNote Codes inside the 13-bit space are answered by table lookup.
      */
     public static float fixedpointToFloat(RT0013.BIN_SENSOR_TYPES sensor, short fixedPoint) {
+        if (sensor == null)
+            throw new IllegalArgumentException("Wrong sensor given");
+        if (fixedPoint >= 0 && fixedPoint < FIXEDPOINT_CODES)
+            return DECODE_TABLES[sensor.ordinal()][fixedPoint];
+        return fixedpointToFloatRanged(sensor, fixedPoint);
+    }
+
+    /**
+     * Function to convert register short according to RT0013-encoding to float temperature/humidity value.
+     *
+     * @param sensor     Type of Sensor
+     * @param fixedPoint Register temperature/humidity value
+     * @return Value in °C or %
+     * @throws IllegalArgumentException When wrong sensor is given.
+     * @implNote Reference implementation by range checks. Used to build the decode tables and for codes outside 13 Bits.
+     */
+    private static float fixedpointToFloatRanged(RT0013.BIN_SENSOR_TYPES sensor, short fixedPoint) {
         if (sensor == RT0013.BIN_SENSOR_TYPES.TEMPERATURE) {
             if (fixedPoint >= 0 && fixedPoint <= 70 * 32) {
                 return fixedPoint / 32.0f;
@@ -261,6 +303,31 @@ public class Helper {
             throw new IllegalArgumentException("Wrong sensor given");
     }
 
+    /**
+     * Function to bulk convert register shorts according to RT0013-encoding to float temperature/humidity values.
+     *
+     * @param sensor Type of Sensor
+     * @param src    Register temperature/humidity values
+     * @param dst    Destination for values in °C or %. Written at the same indices as read.
+     * @param off    First index to convert
+     * @param len    Count of values to convert
+     * @throws IllegalArgumentException  When wrong sensor is given.
+     * @throws IndexOutOfBoundsException When range exceeds src or dst.
+     * @implNote Plain table gather, kept branch-free for in-range codes so the JIT can unroll it.
+     */
+    public static void decode(RT0013.BIN_SENSOR_TYPES sensor, short[] src, float[] dst, int off, int len) {
+        if (sensor == null)
+            throw new IllegalArgumentException("Wrong sensor given");
+        Objects.checkFromIndexSize(off, len, src.length);
+        Objects.checkFromIndexSize(off, len, dst.length);
+
+        float[] table = DECODE_TABLES[sensor.ordinal()];
+        for (int i = off; i < off + len; i++) {
+            short code = src[i];
+            dst[i] = (code >= 0 && code < FIXEDPOINT_CODES) ? table[code] : fixedpointToFloatRanged(sensor, code);
+        }
+    }
+
 
     /**
      * Function to check valid float temperature/humidity value for RT0013.
@@ -270,7 +337,7 @@ public class Helper {
      * @return True if valid value.
      * @throws RuntimeException When wrong sensor is given.
      */
-    public static boolean isValidValue(RT0013.BIN_SENSOR_TYPES sensor, Float value) {
+    public static boolean isValidValue(RT0013.BIN_SENSOR_TYPES sensor, float value) {
         if (sensor == RT0013.BIN_SENSOR_TYPES.TEMPERATURE) {
             return value >= -30 && value <= 70;  // Temperature range
         } else if (sensor == RT0013.BIN_SENSOR_TYPES.HUMIDITY) {
@@ -452,6 +519,27 @@ public class Helper {
         }
     }
 
+    /**
+     * Function to process user input to a timestamp, read as UTC.
+     *
+     * @param input        User input as "yyyy-MM-dd", "yyyy-MM-dd HH:mm" or "yyyy-MM-dd HH:mm:ss"
+     * @param defaultValue Value to fill in if value is not parseable.
+     * @return Processed user input in epoch seconds
+     */
+    public static long parseEpochInput(String input, long defaultValue) {
+        if (input == null || input.isEmpty())
+            return defaultValue;
+
+        String normalized = input.trim().replace(' ', 'T');
+        try {
+            if (normalized.indexOf('T') < 0)
+                return LocalDate.parse(normalized).toEpochSecond(LocalTime.MIDNIGHT, ZoneOffset.UTC);
+            return LocalDateTime.parse(normalized).toEpochSecond(ZoneOffset.UTC);
+        } catch (DateTimeParseException e) {
+            return defaultValue;
+        }
+    }
+
     /**
      * Function to prompt and process user input to a date by given scanner.
      * Asks for year, month, day, hour and minute.
@@ -755,10 +843,10 @@ public class Helper {
         int rowCount = dataTable.size();
         for (short i = (short) Math.max(0, rowCount - limit); i < rowCount; i++) {
             Date timestamp = dataTable.get(i).getDate();
-            Float value = dataTable.get(i).getValue();
+            measurmentPoint point = dataTable.get(i);
             output.append((timestamp != null) ? timestamp.toInstant().toString() : "nan")
                     .append("\t")
-                    .append((value != 0) ? value.toString() : "nan").append("\n");
+                    .append(point.hasValue() ? Float.toString(point.getValue()) : "nan").append("\n");
         }
         return output.toString();
     }
@@ -783,50 +871,4 @@ public class Helper {
             e.printStackTrace();
         }
     }
-
-    /**
-     * Function to write array of measurmentPoints to a CSV file.
-     *
-     * @param dataTable Sorted and checked array of measurmentPoints.
-     * @param sensor    Type of Sensor
-     * @param fileName  Name of CSV-file.
-     */
-    public static void exportDataToCSV(String fileName, List<measurmentPoint> dataTable, RT0013.BIN_SENSOR_TYPES sensor) {
-        if (dataTable == null)
-            return;
-
-        StringBuilder output = new StringBuilder();
-
-        // Header
-        output.append("Timestamp;");
-        if (sensor == RT0013.BIN_SENSOR_TYPES.TEMPERATURE) {
-            output.append("Temperature (°C)");
-        } else if (sensor == RT0013.BIN_SENSOR_TYPES.HUMIDITY) {
-            output.append("Humidity (%)");
-        } else
-            throw new IllegalArgumentException("Wrong sensor given");
-        output.append("\n");
-
-        // Data rows
-        short emptyMarker = (short) 0xFFFF;
-        for (int i = 0; i < dataTable.size(); i++) {
-            Date timestamp = dataTable.get(i).getDate();
-            Float value = dataTable.get(i).getValue();
-            String timestampStr = (timestamp != null) ? DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss").format(LocalDateTime.ofInstant(timestamp.toInstant(), ZoneOffset.UTC)) : "nan";
-            String valueStr = (value != emptyMarker) ? value.toString().replace(".", ",") : "nan";
-            output.append(timestampStr)
-                    .append(";")
-                    .append(valueStr)
-                    .append("\n");
-        }
-
-        fileName += ".csv";
-        try (FileWriter csvWriter = new FileWriter(fileName)) {
-            csvWriter.write(output.toString());
-            System.out.println("File added: " + fileName);
-        } catch (IOException e) {
-            System.err.println("An error occurred while writing to the CSV file.");
-            e.printStackTrace();
-        }
-    }
 }
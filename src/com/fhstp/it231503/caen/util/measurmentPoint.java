@@ -8,30 +8,47 @@ import java.util.Date;
  * */
 public class measurmentPoint {
     /**
-     * Humidity in % or temperature in °C
+     * Raw value of an empty log entry.
+     */
+    public static final short NO_SAMPLE = (short) 0xFFFF;
+    /**
+     * Humidity in % or temperature in °C, NaN if no sample
      * */
-    private float value;
+    private final float value;
+    /**
+     * Raw register value the value was decoded from, NO_SAMPLE if none
+     */
+    private final short fixedPoint;
     /**
      * Timestamp
      * */
     private Date date;
 
     /**
-     * Data structure class for saving a single bin setting.
+     * Data structure class for saving a single datapoint.
      * @param date Stores the timestamp of said value.
-     * @param value Stores the value (Humidity in % or temperature in °C).
+     * @param value Stores the value (Humidity in % or temperature in °C), NaN if no sample.
+     * @param fixedPoint Raw register value said value was decoded from, NO_SAMPLE if no sample.
      * */
-    public measurmentPoint(Date date, float value) {
+    public measurmentPoint(Date date, float value, short fixedPoint) {
         this.date = date;
         this.value = value;
+        this.fixedPoint = fixedPoint;
     }
 
     public float getValue() {
         return value;
     }
 
-    public void setValue(float value) {
-        this.value = value;
+    public short getFixedPoint() {
+        return fixedPoint;
+    }
+
+    /**
+     * @return Whether a sample is stored, decided on the raw value (a valid sample may decode to -1)
+     */
+    public boolean hasValue() {
+        return fixedPoint != NO_SAMPLE;
     }
 
     public Date getDate() {